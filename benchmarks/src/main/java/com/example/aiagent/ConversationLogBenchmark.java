@@ -0,0 +1,103 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * {@link ConversationLog} under concurrent sessions: turns appended per second from several threads, each
+ * cycling through its own sessions, and restoring a session's last turns the way a restarted server does.
+ * The log lives in a temp directory and is compacted between iterations so the disk does not fill up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversationLogBenchmark {
+
+    private static final int SESSIONS_PER_THREAD = 64;
+    private static final String REPLY = "It's 31°C and humid in Mumbai right now, with a light breeze off the sea. "
+            + "Carry water if you are heading out this afternoon.";
+
+    @Param({ "20" })
+    public int maxTurns;
+
+    private Path dir;
+    private ConversationLog log;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Sessions {
+        String[] ids;
+        int next;
+
+        @Setup
+        public void name(ConversationLogBenchmark bench) {
+            int thread = bench.threads.getAndIncrement();
+            ids = new String[SESSIONS_PER_THREAD];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = "bench-" + thread + "-" + i;
+            for (String id : ids)
+                for (int t = 0; t < bench.maxTurns; t++)
+                    bench.log.appendTurn(id, t % 2 == 0 ? "user" : "assistant", REPLY);
+        }
+
+        String next() {
+            String id = ids[next];
+            next = (next + 1) % ids.length;
+            return id;
+        }
+    }
+
+    @Setup
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("conversation-log-bench");
+        log = new ConversationLog(dir, 16 << 20, maxTurns, TimeUnit.HOURS.toMillis(1), 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void compact() throws IOException {
+        log.maintain();
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendTurn(Sessions sessions) {
+        log.appendTurn(sessions.next(), "assistant", REPLY);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ConversationLog.Restored restore(Sessions sessions) {
+        return log.restore(sessions.next());
+    }
+}
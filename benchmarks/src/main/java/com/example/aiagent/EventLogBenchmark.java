@@ -0,0 +1,94 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Request threads that do some work and log one line each: publishing to the {@link EventLog} against the
+ * old System.out.println of a concatenated line, with stdout redirected to a file as it is in production.
+ * Both write to a temp directory. The event log's writer thread runs alongside, so its cost is in the
+ * numbers too. Events it could not keep up with are dropped and counted after each iteration; work=0 shows
+ * where that starts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventLogBenchmark {
+
+    private static final String COMMAND = "Start-Process 'https://youtube.com/watch?v=dQw4w9WgXcQ'";
+
+    /** Blackhole.consumeCPU tokens per request, standing in for the rest of the turn. */
+    @Param({ "0", "2000" })
+    public long work;
+
+    private Path dir;
+    private EventLog events;
+    private PrintStream console;
+    private long droppedBefore;
+
+    @Setup
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("event-log-bench");
+        events = new EventLog(dir, 65536, 64L << 20, 2, "");
+        // What System.out is when the server runs as java ... > server_log.txt
+        console = new PrintStream(new BufferedOutputStream(new FileOutputStream(dir.resolve("console.txt")
+                .toFile()), 8192), true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        long dropped = events.dropped();
+        if (dropped > droppedBefore)
+            System.out.println("  (event log dropped " + (dropped - droppedBefore) + " events)");
+        droppedBefore = dropped;
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        events.close();
+        console.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void eventLog() {
+        Blackhole.consumeCPU(work);
+        events.publish(EventLog.Type.COMMAND, 0x1a14e068fb400001L, 0, 33_058_000L, COMMAND, null, null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void println() {
+        Blackhole.consumeCPU(work);
+        console.println("EXECUTING: " + COMMAND);
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/** Loads the captured request/response bodies under resources/fixtures. */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static String text(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null)
+                throw new IllegalStateException("Missing fixture: " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static List<Map<String, String>> history() {
+        try {
+            return new ObjectMapper().readValue(text("history.json"), new TypeReference<>() {
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * chat-request.json with a data-URL image of the given decoded size spliced in. The image bytes
+     * come from a fixed seed, so every run parses byte-identical bodies.
+     */
+    static byte[] chatRequestWithImage(int imageBytes) {
+        String body = text("chat-request.json");
+        if (imageBytes == 0)
+            return body.getBytes(StandardCharsets.UTF_8);
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        String dataUrl = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(image);
+        return body.replace("\"image\": null", "\"image\": \"" + dataUrl + "\"").getBytes(StandardCharsets.UTF_8);
+    }
+}
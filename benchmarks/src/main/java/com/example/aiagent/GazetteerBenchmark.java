@@ -0,0 +1,107 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Gazetteer#find} on weather questions, one set per matching pass, against the stop-word regex that
+ * used to pick the city out of the message. The regex never fails, so it is only there for scale: it hands
+ * the weather API "kal delhi" where the gazetteer hands it Delhi's coordinates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GazetteerBenchmark {
+
+    private static final String[] EXACT = {
+            "what's the weather in Mumbai today",
+            "weather kal delhi",
+            "weather in new delhi",
+            "bombay ka mausam kaisa hai",
+            "is it raining in chennai",
+    };
+    private static final String[] FUZZY = {
+            "weather in banglore",
+            "mausam batao hyderbad",
+            "Kuala Lumpor weather",
+            "temperature in Bagnalore",
+            "weather in ahmdabad tomorrow",
+    };
+    private static final String[] PREFIX = {
+            "temperature in thiruvanan",
+            "weather in visakha",
+            "weather in tiruchira",
+            "mausam pimpri",
+            "weather in chhatrapati",
+    };
+    private static final String[] MISS = {
+            "weather in Timbuktu",
+            "aaj ka mausam kaisa hai",
+            "what is the temperature outside",
+            "weather in my location",
+            "weather forecast for the week",
+    };
+
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-zA-Z0-9\\s]");
+    private static final Pattern CITY_STOP_WORDS = Pattern.compile("\\b(what|whats|is|the|today|todays|weather"
+            + "|temperature|mausam|in|at|for|please|tell|me|check|batao|location|my|current|right|now|hey|hi)\\b");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    @Param({ "exact", "fuzzy", "prefix", "miss" })
+    public String pass;
+
+    private final Gazetteer gazetteer = Gazetteer.get();
+    private String[] messages;
+
+    @Setup
+    public void pick() {
+        messages = switch (pass) {
+            case "exact" -> EXACT;
+            case "fuzzy" -> FUZZY;
+            case "prefix" -> PREFIX;
+            default -> MISS;
+        };
+        for (String m : messages)
+            if ((gazetteer.find(m) >= 0) != (messages != MISS))
+                throw new IllegalStateException("Unexpected " + pass + " result for: " + m);
+        System.out.println("Index: " + gazetteer.size() + " places, " + gazetteer.indexBytes() + " bytes");
+    }
+
+    @Benchmark
+    public void gazetteer(Blackhole bh) {
+        for (String m : messages)
+            bh.consume(gazetteer.find(m));
+    }
+
+    @Benchmark
+    public void stopWordRegex(Blackhole bh) {
+        for (String m : messages)
+            bh.consume(stopWordRegex(m));
+    }
+
+    /** IntentRouter.extractCity before the gazetteer, without its console line. */
+    private static String stopWordRegex(String msg) {
+        String clean = msg.toLowerCase(Locale.ROOT);
+        clean = NON_ALNUM.matcher(clean).replaceAll("");
+        clean = CITY_STOP_WORDS.matcher(clean).replaceAll("");
+        clean = SPACES.matcher(clean.trim()).replaceAll(" ");
+        return clean.length() > 1 ? clean : null;
+    }
+}
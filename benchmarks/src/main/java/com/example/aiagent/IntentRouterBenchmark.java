@@ -0,0 +1,63 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Single-pass {@link IntentRouter} against the old seven-detector chain, over a realistic message mix. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntentRouterBenchmark {
+
+    static final String[] MESSAGES = {
+            "what's the weather in Mumbai today",
+            "aaj ka mausam kaisa hai",
+            "play despacito on youtube",
+            "koi accha gana chalao",
+            "navigate to the nearest petrol pump",
+            "where am i right now",
+            "search for best pizza near me",
+            "show me the top news",
+            "who is the prime minister of india",
+            "empty the recycle bin",
+            "turn the volume up a little please",
+            "create a python file called hello in my downloads folder that prints hello world",
+            "नमस्ते, आप कैसे हैं?",
+            "can you open windows update settings for me",
+    };
+
+    private final IntentRouter router = IntentRouter.get();
+
+    @Setup
+    public void checkEquivalent() {
+        for (String m : MESSAGES)
+            if (router.route(m) != LegacyIntentChain.route(m))
+                throw new IllegalStateException("Router disagrees with legacy chain on: " + m);
+    }
+
+    @Benchmark
+    public void legacyChain(Blackhole bh) {
+        for (String m : MESSAGES)
+            bh.consume(LegacyIntentChain.route(m));
+    }
+
+    @Benchmark
+    public void router(Blackhole bh) {
+        for (String m : MESSAGES)
+            bh.consume(router.route(m));
+    }
+}
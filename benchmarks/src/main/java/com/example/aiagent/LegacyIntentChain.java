@@ -0,0 +1,60 @@
+package com.example.aiagent;
+
+import com.example.aiagent.IntentRouter.Intent;
+
+/**
+ * The detector chain ChatServlet ran before {@link IntentRouter}, kept verbatim as the baseline:
+ * one toLowerCase per check and a fresh regex for YouTube.
+ */
+final class LegacyIntentChain {
+
+    private LegacyIntentChain() {
+    }
+
+    static Intent route(String msg) {
+        if (isNavigation(msg))
+            return Intent.NAVIGATION;
+        if (isWeather(msg))
+            return Intent.WEATHER;
+        if (isCurrentLocation(msg))
+            return Intent.CURRENT_LOCATION;
+        if (isYouTube(msg))
+            return Intent.YOUTUBE;
+        if (isDirectSearch(msg))
+            return Intent.DIRECT_SEARCH;
+        if (isNews(msg))
+            return Intent.NEWS;
+        if (isGoogleQuestion(msg))
+            return Intent.GOOGLE_QUESTION;
+        return Intent.CHAT;
+    }
+
+    private static boolean isWeather(String m) {
+        return m.toLowerCase().contains("weather") || m.toLowerCase().contains("mausam")
+                || m.toLowerCase().contains("temperature");
+    }
+
+    private static boolean isNews(String m) {
+        return m.toLowerCase().contains("news");
+    }
+
+    private static boolean isYouTube(String m) {
+        return m.toLowerCase().matches(".*(video|watch|play|paly|song|gana|music|youtube).*");
+    }
+
+    private static boolean isDirectSearch(String m) {
+        return m.toLowerCase().contains("search");
+    }
+
+    private static boolean isGoogleQuestion(String m) {
+        return m.toLowerCase().startsWith("who") || m.toLowerCase().startsWith("what");
+    }
+
+    private static boolean isNavigation(String m) {
+        return m.toLowerCase().contains("navigate") || m.toLowerCase().contains("guide");
+    }
+
+    private static boolean isCurrentLocation(String m) {
+        return m.toLowerCase().contains("location") || m.toLowerCase().contains("where am i");
+    }
+}
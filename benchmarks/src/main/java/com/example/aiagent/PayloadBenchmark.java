@@ -0,0 +1,82 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-turn history work: copying a full 20-message session out of its ring and serializing it with
+ * the system prompt into the Groq request body. {@link #treeRequestBody} is how ChatServlet built the
+ * body before history was kept pre-encoded: maps, one HashMap payload, writeValueAsString.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private List<Map<String, String>> history;
+    private ConversationStore.Conversation conversation;
+    private byte[] prefix;
+
+    private static final String MODEL = "llama-3.3-70b-versatile";
+    private static final String MESSAGE = "turn the volume down a bit";
+
+    @Setup
+    public void load() throws IOException {
+        history = Fixtures.history();
+        conversation = new ConversationStore.Conversation(20, 100_000);
+        for (Map<String, String> turn : history)
+            conversation.add(turn.get("role"), turn.get("content"));
+        prefix = UpstreamJson.chatPrefix(MODEL, ChatServlet.SYSTEM_PROMPT);
+
+        ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+        for (byte[] part : chatRequestBody())
+            assembled.write(part);
+        if (!mapper.readTree(assembled.toByteArray()).equals(mapper.readTree(treeRequestBody())))
+            throw new IllegalStateException("Pre-encoded body disagrees with the tree-built one");
+    }
+
+    @Benchmark
+    public List<byte[]> historySnapshot() {
+        return conversation.messages();
+    }
+
+    @Benchmark
+    public List<byte[]> chatRequestBody() {
+        return UpstreamJson.chatRequest(prefix, conversation.messages(), MESSAGE, false);
+    }
+
+    @Benchmark
+    public String treeRequestBody() throws JsonProcessingException {
+        List<Map<String, String>> messages = new ArrayList<>(history.size() + 2);
+        messages.add(Map.of("role", "system", "content", ChatServlet.SYSTEM_PROMPT));
+        messages.addAll(List.copyOf(history));
+        messages.add(Map.of("role", "user", "content", MESSAGE));
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", MODEL);
+        payload.put("messages", messages);
+        payload.put("temperature", 0.6);
+        return mapper.writeValueAsString(payload);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ReplyCache} lookups (normalizing plus get) against a cache holding a few thousand answered
+ * questions, one set of messages per outcome. Setup also checks that a ///CMD/// reply is never handed to a
+ * message that only looks like the one it was cached for, or that normalizes to the same key, while the
+ * same pairs with a plain-text reply do match.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplyCacheBenchmark {
+
+    private static final String CREATE_HELLO =
+            "create a python file called hello in my downloads folder that prints hello world";
+    private static final String CREATE_GOODBYE =
+            "create a python file called hello in my downloads folder that prints goodbye world";
+    private static final String DELETE_DOT = "delete hello.py";
+    private static final String DELETE_UNDERSCORE = "please delete hello_py";
+
+    private static final String[] CACHED = {
+            "what is the capital of france",
+            "who wrote the ramayana",
+            "how far is the moon from earth",
+            "explain photosynthesis in simple words",
+            "open notepad",
+            CREATE_HELLO,
+            DELETE_DOT,
+    };
+    private static final String[] EXACT = {
+            "What is the capital of France?",
+            "hey, who wrote the Ramayana",
+            "Open  Notepad",
+            "Create a Python file called hello in my Downloads folder that prints hello world",
+    };
+    private static final String[] SIMILAR = {
+            "whats the capital of france",
+            "who wrote ramayan",
+            "how far is moon from the earth",
+            "explain photosynthesis in simple word",
+    };
+    private static final String[] MISS = {
+            CREATE_GOODBYE,
+            DELETE_UNDERSCORE,
+            "what is the capital of germany",
+            "how far is mars from earth",
+            "open calculator",
+    };
+
+    @Param({ "exact", "similar", "miss" })
+    public String outcome;
+
+    private final ReplyCache cache = new ReplyCache("bench", 1, TimeUnit.HOURS, 4096, 0.8, Set.of());
+    private String[] messages;
+
+    @Setup
+    public void fill() {
+        for (int i = 0; i < 4000; i++)
+            cache.put(cache.key("filler question number " + i + " about topic " + (i * 7919 % 1000)), "answer " + i);
+        for (String m : CACHED)
+            cache.put(cache.key(m), reply(m));
+
+        ReplyCache text = new ReplyCache("bench_text", 1, TimeUnit.HOURS, 16, 0.8, Set.of());
+        text.put(text.key(CREATE_HELLO), "Here is how you would write it.");
+        text.put(text.key(DELETE_DOT), "Here is how you would delete it.");
+        if (text.get(text.key(CREATE_GOODBYE)) == null || text.get(text.key(DELETE_UNDERSCORE)) == null)
+            throw new IllegalStateException("Expected similar and exact hits for plain-text replies");
+
+        messages = switch (outcome) {
+            case "exact" -> EXACT;
+            case "similar" -> SIMILAR;
+            default -> MISS;
+        };
+        for (String m : messages) {
+            String reply = cache.get(cache.key(m));
+            if ((reply != null) != (messages != MISS))
+                throw new IllegalStateException("Unexpected " + outcome + " result for: " + m + " -> " + reply);
+        }
+        if (!Objects.equals(cache.get(cache.key(CREATE_HELLO)), reply(CREATE_HELLO)))
+            throw new IllegalStateException("Expected an exact hit for the cached command");
+    }
+
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        for (String m : messages)
+            bh.consume(cache.get(cache.key(m)));
+    }
+
+    private static String reply(String message) {
+        if (message.startsWith("open "))
+            return "///CMD/// Start-Process " + message.substring(5);
+        if (message == DELETE_DOT)
+            return "///CMD/// Remove-Item \"$HOME\\hello.py\"";
+        if (message == CREATE_HELLO)
+            return "///CMD/// Set-Content \"$HOME\\Downloads\\hello.py\" 'print(\"hello world\")'";
+        return "Cached answer to: " + message;
+    }
+}
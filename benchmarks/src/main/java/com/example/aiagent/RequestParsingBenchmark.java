@@ -0,0 +1,58 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * doPost's body handling, from text-only bodies up to multi-megabyte base64 photos: the old read of the
+ * whole request into a Map against the streaming {@link ChatRequest} reader that decodes the image
+ * straight to bytes. Run with -prof gc to see the per-request allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestParsingBenchmark {
+
+    @Param({ "0", "262144", "4194304" })
+    public int imageBytes;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = ChatRequest.jsonFactory(8 << 20);
+    private byte[] body;
+
+    @Setup
+    public void load() {
+        body = Fixtures.chatRequestWithImage(imageBytes);
+    }
+
+    @Benchmark
+    public Map<String, Object> readValueToMap() throws IOException {
+        return mapper.readValue(new ByteArrayInputStream(body), new TypeReference<>() {
+        });
+    }
+
+    @Benchmark
+    public ChatRequest streamingChatRequest() throws IOException {
+        return ChatRequest.readJson(factory, new ByteArrayInputStream(body), 8 << 20);
+    }
+}
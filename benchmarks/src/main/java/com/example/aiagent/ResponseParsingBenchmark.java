@@ -0,0 +1,61 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning captured Groq and OpenWeatherMap responses into reply text. {@link #groqChatReplyTree} is
+ * the full JsonNode tree the Groq reply used to be read through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private String groqResponse;
+    private String weatherResponse;
+
+    @Setup
+    public void load() {
+        groqResponse = Fixtures.text("groq-chat-response.json");
+        weatherResponse = Fixtures.text("openweathermap-response.json");
+        try {
+            if (!groqChatReply().equals(groqChatReplyTree()))
+                throw new IllegalStateException("Streaming reply parse disagrees with the tree");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public String groqChatReply() throws IOException {
+        return UpstreamJson.chatReply(mapper.getFactory(), groqResponse);
+    }
+
+    @Benchmark
+    public String groqChatReplyTree() throws JsonProcessingException {
+        return mapper.readTree(groqResponse).path("choices").get(0).path("message").path("content").asText();
+    }
+
+    @Benchmark
+    public String openWeatherMapReport() throws JsonProcessingException {
+        return UpstreamJson.weatherReport(mapper, weatherResponse);
+    }
+}
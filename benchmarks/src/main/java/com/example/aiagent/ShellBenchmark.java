@@ -0,0 +1,79 @@
+package com.example.aiagent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Commands per second: {@link ShellWorkerPool} against the old spawn-an-interpreter-per-command code,
+ * reproduced in {@link #spawnPerCall()}. Uses bash so it runs anywhere; pass -p interpreter=pwsh to
+ * measure PowerShell, where interpreter startup is far more expensive.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShellBenchmark {
+
+    private static final String COMMAND = "echo hello";
+
+    @Param({ "bash" })
+    public String interpreter;
+
+    private ShellWorkerPool pool;
+
+    @Setup
+    public void start() {
+        pool = new ShellWorkerPool(interpreter, 1, 10_000);
+    }
+
+    @TearDown
+    public void stop() {
+        pool.close();
+    }
+
+    @Benchmark
+    public String pooled() throws IOException, InterruptedException {
+        return pool.run(COMMAND).stdout();
+    }
+
+    /** executeSystemCommand before the pool: new process, stdout then stderr read in turn, then waitFor. */
+    @Benchmark
+    public String spawnPerCall() throws IOException, InterruptedException {
+        ProcessBuilder pb = interpreter.contains("pwsh") || interpreter.contains("powershell")
+                ? new ProcessBuilder(interpreter, "-NoProfile", "-ExecutionPolicy", "Bypass", "-Command", COMMAND)
+                : new ProcessBuilder(interpreter, "-c", COMMAND);
+        Process p = pb.start();
+
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                output.append(line).append("\n");
+        }
+        StringBuilder errorOutput = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                errorOutput.append(line).append("\n");
+        }
+        p.waitFor(5, TimeUnit.SECONDS);
+        return output.toString().trim();
+    }
+}
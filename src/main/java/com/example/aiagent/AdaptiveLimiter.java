@@ -0,0 +1,125 @@
+package com.example.aiagent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AIMD concurrency limit with a bounded wait queue, for one {@link CostClass}.
+ *
+ * A turn that finishes within the class's latency target grows the limit by 1/limit, about +1 for every
+ * limit's worth of turns, but only while the limit is actually being used. A slow or failed turn cuts it
+ * by a tenth, at most once per round trip: turns admitted before the last cut do not cut again, so one
+ * burst of slow replies counts once. Turns over the limit wait in FIFO order; when the queue is full or a
+ * turn has waited past the queue timeout it is shed with 503 and a Retry-After estimated from recent
+ * latency.
+ */
+final class AdaptiveLimiter {
+
+    private static final double BACKOFF = 0.9;
+    private static final double MIN_LIMIT = 1;
+    private static final long MAX_RETRY_AFTER_S = 30;
+
+    private final CostClass cost;
+    private final long targetNanos;
+    private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecrease = System.nanoTime();
+    private double averageNanos;
+
+    AdaptiveLimiter(CostClass cost) {
+        this.cost = cost;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(cost.targetMs);
+        this.limit = Math.max(MIN_LIMIT, Math.min(cost.initialLimit, cost.maxLimit));
+        this.averageNanos = targetNanos / 2.0;
+    }
+
+    /** A slot held by one admitted turn. Release it exactly once, when the turn has been answered. */
+    final class Permit {
+        private final long granted = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        void release(boolean ok) {
+            if (released.compareAndSet(false, true))
+                AdaptiveLimiter.this.release(granted, ok);
+        }
+    }
+
+    /** A permit now, a permit once a slot frees up, or a {@link ShedException}. */
+    CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter;
+        synchronized (this) {
+            if (inFlight < (int) limit && waiting.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            if (waiting.size() >= cost.queue) {
+                Metrics.admissionShed(cost, Metrics.SHED_QUEUE_FULL);
+                return CompletableFuture.failedFuture(shed("queue full"));
+            }
+            waiter = new CompletableFuture<>();
+            waiting.add(waiter);
+        }
+        Metrics.admissionQueued(cost);
+        long queued = System.nanoTime();
+        CompletableFuture.delayedExecutor(cost.queueTimeoutMs, TimeUnit.MILLISECONDS).execute(() -> {
+            boolean expired;
+            synchronized (this) {
+                expired = waiting.remove(waiter);
+            }
+            if (expired) {
+                Metrics.admissionShed(cost, Metrics.SHED_QUEUE_TIMEOUT);
+                waiter.completeExceptionally(shed("queue timeout"));
+            }
+        });
+        return waiter.whenComplete((permit, e) -> Metrics.admissionWaited(cost, queued));
+    }
+
+    synchronized double limit() {
+        return limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int queued() {
+        return waiting.size();
+    }
+
+    private void release(long granted, boolean ok) {
+        long now = System.nanoTime();
+        long latency = now - granted;
+        List<CompletableFuture<Permit>> admitted = new ArrayList<>(1);
+        synchronized (this) {
+            averageNanos += (latency - averageNanos) * 0.2;
+            if (!ok || latency > targetNanos) {
+                if (granted - lastDecrease > 0) {
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                    lastDecrease = now;
+                }
+            } else if (inFlight >= limit / 2) {
+                limit = Math.min(cost.maxLimit, limit + 1 / limit);
+            }
+            inFlight--;
+            while (inFlight < (int) limit && !waiting.isEmpty()) {
+                admitted.add(waiting.poll());
+                inFlight++;
+            }
+        }
+        // Outside the lock: completing runs the queued turn's dispatch on this thread
+        for (CompletableFuture<Permit> waiter : admitted)
+            waiter.complete(new Permit());
+    }
+
+    /** Roughly when the queue in front of a new arrival will have drained. */
+    private synchronized ShedException shed(String why) {
+        double drainNanos = averageNanos * (waiting.size() + 1) / limit;
+        long seconds = Math.max(1, Math.min(MAX_RETRY_AFTER_S, (long) Math.ceil(drainNanos / 1e9)));
+        return new ShedException(503, seconds, cost.label + " " + why);
+    }
+}
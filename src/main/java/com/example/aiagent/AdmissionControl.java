@@ -0,0 +1,120 @@
+package com.example.aiagent;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The admission stage in front of /chat dispatch.
+ *
+ * First a token bucket per client (by IP, or by session with ADMISSION_CLIENT_KEY=session) refuses
+ * clients sending faster than ADMISSION_CLIENT_RATE turns per second with bursts of
+ * ADMISSION_CLIENT_BURST; this runs before the body is read. Behind a proxy listed in TRUSTED_PROXIES
+ * the IP is the one it forwards (see Main). Keying by session needs no proxy; requests that carry no
+ * session yet share their address's bucket. Then the turn waits for a slot in its {@link CostClass}'s
+ * {@link AdaptiveLimiter}. Refusals are {@link ShedException}s: 429 for the rate, 503 for saturation,
+ * both with a Retry-After.
+ */
+final class AdmissionControl {
+
+    private static final CostClass[] CLASSES = CostClass.values();
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AdaptiveLimiter[] limiters = new AdaptiveLimiter[CLASSES.length];
+    private final double ratePerNano;
+    private final double burst;
+    private final boolean bySession;
+    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    AdmissionControl(double ratePerSecond, double burst, boolean bySession) {
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = Math.max(1, burst);
+        this.bySession = bySession;
+        for (CostClass cost : CLASSES) {
+            limiters[cost.ordinal()] = new AdaptiveLimiter(cost);
+            Metrics.limiter(cost, limiters[cost.ordinal()]);
+        }
+    }
+
+    /** ADMISSION_CLIENT_RATE of 0 turns the per-client limit off. */
+    static AdmissionControl fromEnv() {
+        return new AdmissionControl(
+                Double.parseDouble(Env.get("ADMISSION_CLIENT_RATE", "2")),
+                Double.parseDouble(Env.get("ADMISSION_CLIENT_BURST", "10")),
+                "session".equalsIgnoreCase(Env.get("ADMISSION_CLIENT_KEY", "ip")));
+    }
+
+    /** Takes one token from the client's bucket, or throws a 429 {@link ShedException}. */
+    void checkRate(HttpServletRequest req) {
+        if (ratePerNano <= 0)
+            return;
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        // Keyed by session, a client without one yet goes by its address: the session is only created once
+        // the turn is admitted
+        HttpSession session = bySession ? req.getSession(false) : null;
+        String client = (session != null) ? session.getId() : req.getRemoteAddr();
+        long waitNanos = buckets.computeIfAbsent(client, c -> new TokenBucket(burst, now)).take(now);
+        if (waitNanos > 0) {
+            Metrics.admissionRateLimited();
+            throw new ShedException(429, Math.max(1, (long) Math.ceil(waitNanos / 1e9)), "rate limited");
+        }
+    }
+
+    /**
+     * Runs the turn once its cost class admits it, and frees the slot when the turn's reply is done. If
+     * the turn is shed the returned future fails with a {@link ShedException} and the turn never runs.
+     */
+    <T> CompletableFuture<T> run(CostClass cost, Supplier<CompletableFuture<T>> turn) {
+        return limiters[cost.ordinal()].acquire().thenCompose(permit -> {
+            CompletableFuture<T> reply;
+            try {
+                reply = turn.get();
+            } catch (RuntimeException e) {
+                permit.release(false);
+                throw e;
+            }
+            return reply.whenComplete((value, e) -> permit.release(e == null));
+        });
+    }
+
+    // A bucket idle this long has refilled completely, so dropping it changes nothing
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MS) || !lastSweep.compareAndSet(last, now))
+            return;
+        long refillNanos = (long) (burst / ratePerNano);
+        buckets.values().removeIf(b -> b.idleSince(now) > refillNanos);
+    }
+
+    private final class TokenBucket {
+        private double tokens;
+        private long updated;
+
+        TokenBucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.updated = now;
+        }
+
+        /** 0 if a token was taken, otherwise how long until one is available. */
+        synchronized long take(long now) {
+            tokens = Math.min(burst, tokens + (now - updated) * ratePerNano);
+            updated = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+
+        synchronized long idleSince(long now) {
+            return now - updated;
+        }
+    }
+}
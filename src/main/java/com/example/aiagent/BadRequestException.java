@@ -0,0 +1,11 @@
+package com.example.aiagent;
+
+import java.io.IOException;
+
+/** A request that is well-formed but can't be served as sent, such as an image too big to decode. Answered with 400. */
+class BadRequestException extends IOException {
+
+    BadRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hit/miss/eviction counters of every {@link LookupCache} and {@link ReplyCache}, for tuning TTLs,
+ * sizes and the similarity threshold.
+ */
+@WebServlet("/cache/stats")
+public class CacheStatsServlet extends HttpServlet {
+
+    // Built on the first request, so a tuning endpoint doesn't load databind at startup
+    private static final class Lazy {
+        static final ObjectMapper MAPPER = new ObjectMapper();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (LookupCache<?, ?> cache : LookupCache.all()) {
+            long hits = cache.hits.sum();
+            long lookups = hits + cache.misses.sum() + cache.coalesced.sum();
+            Map<String, Object> c = new LinkedHashMap<>();
+            c.put("size", cache.size());
+            c.put("hits", hits);
+            c.put("misses", cache.misses.sum());
+            c.put("coalesced", cache.coalesced.sum());
+            c.put("evictions", cache.evictions.sum());
+            c.put("expirations", cache.expirations.sum());
+            c.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+            stats.put(cache.name(), c);
+        }
+        for (ReplyCache cache : ReplyCache.all()) {
+            long hits = cache.exactHits.sum() + cache.similarHits.sum();
+            long lookups = hits + cache.misses.sum();
+            Map<String, Object> c = new LinkedHashMap<>();
+            c.put("size", cache.size());
+            c.put("exactHits", cache.exactHits.sum());
+            c.put("similarHits", cache.similarHits.sum());
+            c.put("misses", cache.misses.sum());
+            c.put("skipped", cache.skipped.sum());
+            c.put("evictions", cache.evictions.sum());
+            c.put("expirations", cache.expirations.sum());
+            c.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+            stats.put(cache.name(), c);
+        }
+        resp.setContentType("application/json");
+        Lazy.MAPPER.writerWithDefaultPrettyPrinter().writeValue(resp.getOutputStream(), stats);
+    }
+}
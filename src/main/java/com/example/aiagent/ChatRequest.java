@@ -0,0 +1,136 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.core.exc.StreamConstraintsException;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One /chat turn as sent by the browser: JSON ({message, lang, image, location}) or multipart form data
+ * with the same fields and the image as a binary file part.
+ *
+ * The JSON is read token by token rather than into a Map, so a base64 image is decoded straight from the
+ * parser's buffers into bytes and never becomes a String.
+ */
+record ChatRequest(String message, String lang, VisionImage image, Double latitude, Double longitude) {
+
+    /** Slack for everything in a request besides the image itself. */
+    private static final int ENVELOPE_BYTES = 64 * 1024;
+
+    static ChatRequest read(HttpServletRequest req, JsonFactory factory, int maxImageBytes) throws IOException {
+        // Refuse obviously oversized bodies before reading a byte of them
+        if (req.getContentLengthLong() > maxBodyBytes(maxImageBytes))
+            throw new PayloadTooLargeException("Request body is larger than " + maxBodyBytes(maxImageBytes) + " bytes");
+        String contentType = req.getContentType();
+        ChatRequest chat = (contentType != null && contentType.startsWith("multipart/form-data"))
+                ? readMultipart(req, maxImageBytes) : readJson(factory, req.getInputStream(), maxImageBytes);
+        if (chat.message() == null && chat.image() == null)
+            throw new BadRequestException("Expected a message or an image");
+        return chat;
+    }
+
+    /** Largest body that can carry an image of maxImageBytes as a base64 data URL. */
+    static long maxBodyBytes(int maxImageBytes) {
+        return 4L * ((maxImageBytes + 2) / 3) + ENVELOPE_BYTES;
+    }
+
+    /** A factory whose parser refuses any string (in practice, the image) longer than the limit allows. */
+    static JsonFactory jsonFactory(int maxImageBytes) {
+        return JsonFactory.builder().streamReadConstraints(StreamReadConstraints.builder()
+                .maxStringLength((int) Math.min(Integer.MAX_VALUE, maxBodyBytes(maxImageBytes))).build()).build();
+    }
+
+    static ChatRequest readJson(JsonFactory factory, InputStream in, int maxImageBytes) throws IOException {
+        String message = null;
+        String lang = "en-US";
+        VisionImage image = null;
+        Double latitude = null, longitude = null;
+
+        try (JsonParser p = factory.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT)
+                throw new IOException("Expected a JSON object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                // A field of the wrong type is skipped whole, so the parser stays on this object's fields
+                switch (field) {
+                    case "message" -> {
+                        if (value == JsonToken.VALUE_STRING)
+                            message = p.getText();
+                        else
+                            p.skipChildren();
+                    }
+                    case "lang" -> {
+                        if (value == JsonToken.VALUE_STRING)
+                            lang = p.getText();
+                        else
+                            p.skipChildren();
+                    }
+                    case "image" -> {
+                        if (value == JsonToken.VALUE_STRING && p.getTextLength() > 0)
+                            image = VisionImage.fromJson(p, maxImageBytes);
+                        else
+                            p.skipChildren();
+                    }
+                    case "location" -> {
+                        if (value != JsonToken.START_OBJECT) {
+                            p.skipChildren();
+                            break;
+                        }
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String coordinate = p.currentName();
+                            JsonToken number = p.nextToken();
+                            if (number.isNumeric() && coordinate.equals("latitude"))
+                                latitude = p.getDoubleValue();
+                            else if (number.isNumeric() && coordinate.equals("longitude"))
+                                longitude = p.getDoubleValue();
+                            else
+                                p.skipChildren();
+                        }
+                    }
+                    default -> p.skipChildren();
+                }
+            }
+        } catch (StreamConstraintsException e) {
+            throw new PayloadTooLargeException("Image is larger than " + maxImageBytes + " bytes");
+        }
+        return new ChatRequest(message, lang, image, latitude, longitude);
+    }
+
+    private static ChatRequest readMultipart(HttpServletRequest req, int maxImageBytes) throws IOException {
+        try {
+            VisionImage image = null;
+            Part part = req.getPart("image");
+            if (part != null && part.getSize() > 0) {
+                if (part.getSize() > maxImageBytes)
+                    throw new PayloadTooLargeException("Image is larger than " + maxImageBytes + " bytes");
+                try (InputStream in = part.getInputStream()) {
+                    image = VisionImage.read(in, part.getContentType(), maxImageBytes);
+                }
+            }
+            String lang = req.getParameter("lang");
+            return new ChatRequest(req.getParameter("message"), lang == null ? "en-US" : lang, image,
+                    number(req.getParameter("latitude")), number(req.getParameter("longitude")));
+        } catch (ServletException | IllegalStateException e) {
+            // Not multipart after all, or over the container's multipart limits
+            throw new IOException("Unreadable multipart request: " + e.getMessage(), e);
+        }
+    }
+
+    private static Double number(String value) {
+        if (value == null || value.isEmpty())
+            return null;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,50 +1,80 @@
 package com.example.aiagent;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.example.aiagent.ConversationStore.Conversation;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.annotation.MultipartConfig;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
-
-@WebServlet("/chat")
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+@WebServlet(urlPatterns = { "/chat", "/chat/stream" }, asyncSupported = true)
+@MultipartConfig
 public class ChatServlet extends HttpServlet {
 
     // 1. Load Environment Variables
-    private static final Map<String, String> env = loadEnvVariables();
-
-    private static final String GROQ_API_KEY = env.get("GROQ_API_KEY");
-    private static final String WEATHER_API_KEY = env.get("WEATHER_API_KEY");
-    private static final String GNEWS_API_KEY = env.get("GNEWS_API_KEY");
-    private static final String YOUTUBE_API_KEY = env.get("YOUTUBE_API_KEY");
-    private static final String GOOGLE_API_KEY = env.get("GOOGLE_API_KEY");
-    private static final String SEARCH_ENGINE_ID = env.get("SEARCH_ENGINE_ID");
+    private static final String GROQ_API_KEY = Env.get("GROQ_API_KEY");
+    private static final String WEATHER_API_KEY = Env.get("WEATHER_API_KEY");
+    private static final String GNEWS_API_KEY = Env.get("GNEWS_API_KEY");
+    private static final String YOUTUBE_API_KEY = Env.get("YOUTUBE_API_KEY");
+    private static final String GOOGLE_API_KEY = Env.get("GOOGLE_API_KEY");
+    private static final String SEARCH_ENGINE_ID = Env.get("SEARCH_ENGINE_ID");
+
+    // Upstream base URLs. UPSTREAM_BASE_URL points every API at one host (e.g. tools.StubUpstreamServer);
+    // the per-API keys override it.
+    private static final String GROQ_BASE_URL = baseUrl("GROQ_BASE_URL", "https://api.groq.com");
+    private static final String WEATHER_BASE_URL = baseUrl("WEATHER_BASE_URL", "https://api.openweathermap.org");
+    private static final String GEOCODE_BASE_URL = baseUrl("GEOCODE_BASE_URL", "https://nominatim.openstreetmap.org");
+    private static final String GNEWS_BASE_URL = baseUrl("GNEWS_BASE_URL", "https://gnews.io");
+    private static final String GOOGLE_BASE_URL = baseUrl("GOOGLE_BASE_URL", "https://www.googleapis.com");
 
     // Use a default model if the key is missing from .env
-    private static final String GROQ_CHAT_MODEL = env.getOrDefault("GROQ_CHAT_MODEL", "llama-3.3-70b-versatile");
+    private static final String GROQ_CHAT_MODEL = Env.get("GROQ_CHAT_MODEL", "llama-3.3-70b-versatile");
     private static final String GROQ_VISION_MODEL = "meta-llama/llama-4-scout-17b-16e-instruct";
+    // Send a second, identical chat completion if the first has not answered by then (0 = never)
+    private static final long GROQ_HEDGE_MS = Long.parseLong(Env.get("GROQ_HEDGE_MS", "0"));
+
+    // Lat/lon lookups are rounded to this many decimals before hitting the cache or the API
+    private static final double COORD_BUCKET_SCALE = Math.pow(10,
+            Integer.parseInt(Env.get("COORD_BUCKET_DECIMALS", "2")));
+
+    private static final Pattern LANG_TAG = Pattern.compile("\\[LANG:[a-zA-Z0-9-]+\\]");
 
-    private static final List<Map<String, String>> chatHistory = new LinkedList<>();
-    private static String conversationContext = "NONE";
+    // Uploaded images: hard size limit, and the longest side kept when forwarding (0 keeps the original)
+    static final int MAX_IMAGE_BYTES = Integer.parseInt(Env.get("VISION_MAX_IMAGE_BYTES", String.valueOf(8 << 20)));
+    private static final int IMAGE_MAX_DIMENSION = Integer.parseInt(Env.get("VISION_MAX_DIMENSION", "1600"));
+    // 48 MP photos decode to ~200 MB of raster; anything above is refused with 400 before it is decoded
+    private static final long IMAGE_MAX_PIXELS = Long.parseLong(Env.get("VISION_MAX_PIXELS", "50000000"));
+    private static final float IMAGE_JPEG_QUALITY = Float.parseFloat(Env.get("VISION_JPEG_QUALITY", "0.85"));
 
-    private static final String SYSTEM_PROMPT = """
+    // Upper bound for a whole /chat turn; the request thread is released long before this
+    private static final long REQUEST_TIMEOUT_MS = Long.parseLong(Env.get("CHAT_TIMEOUT_MS", "120000"));
+
+    static final String SYSTEM_PROMPT = """
             You are an expert Windows 11 System Administrator AI.
 
             YOUR ROLE:
@@ -85,34 +115,48 @@ public class ChatServlet extends HttpServlet {
             - "[LANG:hi-IN] नमस्ते, मैं आपकी क्या मदद कर सकता हूँ?"
             """;
 
-    private final ObjectMapper mapper = new ObjectMapper();
-    private final HttpClient http = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
-            .connectTimeout(Duration.ofSeconds(30))
-            .build();
+    // Model, temperature and system prompt encoded once; every chat request starts with these bytes
+    private static final byte[] CHAT_PREFIX = UpstreamJson.chatPrefix(GROQ_CHAT_MODEL, SYSTEM_PROMPT);
+
+    private final ConversationStore conversations;
+    private final IntentRouter router = IntentRouter.get();
+    private final Gazetteer gazetteer = Gazetteer.get();
+    private final EventLog events = EventLog.get();
+    // Per-source TTLs follow how fast each answer actually changes
+    private final LookupCache<String, String> weatherCache = LookupCache.fromEnv("weather", 600);
+    private final LookupCache<String, String> geocodeCache = LookupCache.fromEnv("geocode", 86400);
+    private final LookupCache<String, String> newsCache = LookupCache.fromEnv("news", 900);
+    private final LookupCache<String, String> youTubeCache = LookupCache.fromEnv("youtube", 86400);
+    private final LookupCache<String, String> searchCache = LookupCache.fromEnv("search", 3600);
+    // Keyed by image content hash + prompt: the same photo asked about again is not re-sent
+    private final LookupCache<String, String> visionCache = LookupCache.fromEnv("vision", 3600);
+    // LLM and search answers to questions asked before, matched on a normalized / near-identical message
+    private final ReplyCache chatReplies = ReplyCache.fromEnv("chat_replies", 86400);
+    private final ReplyCache searchReplies = ReplyCache.fromEnv("search_replies", 3600);
+    // A chat turn needs only jackson-core; databind loads with the first lookup reply (see Trees)
+    private final JsonFactory json = new JsonFactory();
+    private final JsonFactory requestJson = ChatRequest.jsonFactory(MAX_IMAGE_BYTES);
+    // Response callbacks and PowerShell calls run on virtual threads, never on a Jetty worker
+    private final ExecutorService asyncExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Timeouts, bulkheads and circuit breakers for every outbound call
+    private final UpstreamClient upstream = new UpstreamClient(asyncExecutor);
+    // Long-lived interpreters for ///CMD/// replies and Start-Process calls
+    private final ShellWorkerPool shells = ShellWorkerPool.fromEnv();
+    // Per-client rate limits and per-cost-class concurrency limits in front of dispatch
+    private final AdmissionControl admission = AdmissionControl.fromEnv();
+
+    public ChatServlet() {
+        this(ConversationStore.fromEnv());
+    }
 
-    // ===== THIS METHOD WAS MISSING IN YOUR CODE =====
-    private static Map<String, String> loadEnvVariables() {
-        Map<String, String> envMap = new HashMap<>();
-        // 1. Load from System Environment (Cloud/Production)
-        envMap.putAll(System.getenv());
+    public ChatServlet(ConversationStore conversations) {
+        this.conversations = conversations;
+    }
 
-        // 2. Load from .env file (Local Dev)
-        try {
-            List<String> lines = Files.readAllLines(Paths.get(".env"));
-            for (String line : lines) {
-                if (line.trim().isEmpty() || line.startsWith("#"))
-                    continue;
-                String[] parts = line.split("=", 2);
-                if (parts.length == 2) {
-                    envMap.put(parts[0].trim(), parts[1].trim());
-                }
-            }
-            System.out.println("✅ Loaded keys from .env file.");
-        } catch (IOException e) {
-            System.out.println("⚠️ No .env file found. Using System Env variables.");
-        }
-        return envMap;
+    @Override
+    public void destroy() {
+        shells.close();
+        asyncExecutor.shutdown();
     }
 
     @Override
@@ -125,335 +169,569 @@ public class ChatServlet extends HttpServlet {
         resp.setHeader("Access-Control-Allow-Origin", "*");
         resp.setHeader("Access-Control-Allow-Methods", "POST, GET, OPTIONS");
         resp.setHeader("Access-Control-Allow-Headers", "Content-Type");
+        resp.setHeader("Access-Control-Expose-Headers", "Retry-After");
     }
 
-    // ---------- INTENT DETECTORS ----------
-    private boolean isWeather(String m) {
-        return m.toLowerCase().contains("weather") || m.toLowerCase().contains("mausam")
-                || m.toLowerCase().contains("temperature");
-    }
-
-    private boolean isNews(String m) {
-        return m.toLowerCase().contains("news");
+    // ---------- UPSTREAM HELPERS ----------
+    /** The tree-model mapper and its few hundred classes, loaded on first use rather than at startup. */
+    private static final class Trees {
+        static final ObjectMapper MAPPER = new ObjectMapper();
     }
 
-    private boolean isYouTube(String m) {
-        return m.toLowerCase().matches(".*(video|watch|play|paly|song|gana|music|youtube).*");
+    /** A flat object of strings, the shape of every reply and event the browser gets. */
+    private String toJson(Map<String, String> data) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = json.createGenerator(out)) {
+            gen.writeStartObject();
+            for (Map.Entry<String, String> field : data.entrySet())
+                gen.writeStringField(field.getKey(), field.getValue());
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
     }
 
-    private boolean isDirectSearch(String m) {
-        return m.toLowerCase().contains("search");
+    private JsonNode json(String body) {
+        return parse(() -> Trees.MAPPER.readTree(body));
     }
 
-    private boolean isGoogleQuestion(String m) {
-        return m.toLowerCase().startsWith("who") || m.toLowerCase().startsWith("what");
+    private interface JsonReader<T> {
+        T read() throws IOException;
     }
 
-    private boolean isNavigation(String m) {
-        return m.toLowerCase().contains("navigate") || m.toLowerCase().contains("guide");
+    /** Runs a JSON read inside a CompletableFuture stage, where checked exceptions can't escape. */
+    private static <T> T parse(JsonReader<T> reader) {
+        try {
+            return reader.read();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private boolean isCurrentLocation(String m) {
-        return m.toLowerCase().contains("location") || m.toLowerCase().contains("where am i");
+    // VISION LOGIC
+    private CompletableFuture<String> analyzeImageWithGroq(String userMessage, VisionImage image) {
+        String prompt = (userMessage == null || userMessage.trim().isEmpty()) ? "What is in this image?"
+                : userMessage;
+        long requestId = EventLog.currentRequest();
+        return visionCache.get(image.sha256() + ":" + prompt, k -> CompletableFuture
+                // Decoding and re-encoding an image is CPU work; keep it off the request thread
+                .supplyAsync(() -> image.fitWithin(IMAGE_MAX_DIMENSION, IMAGE_JPEG_QUALITY), asyncExecutor)
+                .thenCompose(forwarded -> {
+                    String[] envelope = parse(() -> UpstreamJson.visionRequest(Trees.MAPPER, GROQ_VISION_MODEL, prompt,
+                            forwarded.mimeType()));
+                    HttpRequest request = HttpRequest.newBuilder()
+                            .uri(URI.create(GROQ_BASE_URL + "/openai/v1/chat/completions"))
+                            .header("Authorization", "Bearer " + GROQ_API_KEY)
+                            .header("Content-Type", "application/json")
+                            .POST(forwarded.bodyPublisher(envelope[0], envelope[1])).build();
+                    return EventLog.withRequest(requestId, () -> upstream.send(UpstreamApi.GROQ_VISION, request,
+                            HttpResponse.BodyHandlers.ofString()));
+                }).thenApply(response -> {
+                    if (response.statusCode() != 200)
+                        throw new UpstreamException(response.statusCode(), "vision");
+                    return parse(() -> UpstreamJson.chatReply(json, response.body()));
+                }))
+                .exceptionally(e -> {
+                    int status = UpstreamException.statusOf(e);
+                    return status > 0 ? "Vision Error: " + status : "Failed to analyze image.";
+                });
     }
 
-    private String extractCity(String msg) {
-        String clean = msg.toLowerCase();
-        clean = clean.replaceAll("[^a-zA-Z0-9\\s]", "");
-        String stopWords = "\\b(what|whats|is|the|today|todays|weather|temperature|mausam|in|at|for|please|tell|me|check|batao|location|my|current|right|now|hey|hi)\\b";
-        clean = clean.replaceAll(stopWords, "");
-        clean = clean.trim().replaceAll("\\s+", " ");
-        System.out.println("🔍 Raw: " + msg + " | 📍 Extracted City: '" + clean + "'");
-        return clean.length() > 1 ? clean : null;
+    private CompletableFuture<String> getWeather(double lat, double lon) {
+        return getWeather(lat, lon, null);
     }
 
-    private void addToHistory(String role, String content) {
-        if (chatHistory.size() >= 20)
-            chatHistory.remove(0);
-        chatHistory.add(Map.of("role", role, "content", content));
+    /** Weather at a point, reported under the given place name, or under the API's name for it if null. */
+    private CompletableFuture<String> getWeather(double lat, double lon, String place) {
+        double bLat = bucket(lat), bLon = bucket(lon);
+        return weatherCache.get("ll:" + bLat + "," + bLon + (place == null ? "" : ":" + place),
+                k -> fetchWeather(WEATHER_BASE_URL + "/data/2.5/weather?lat=" + bLat + "&lon=" + bLon
+                        + "&appid=" + WEATHER_API_KEY + "&units=metric", place))
+                .exceptionally(e -> weatherError(e, "Weather error."));
     }
 
-    // VISION LOGIC
-    private String analyzeImageWithGroq(String userMessage, String base64Image) {
-        try {
-            String url = "https://api.groq.com/openai/v1/chat/completions";
-            List<Map<String, Object>> contentList = new ArrayList<>();
-            String text = (userMessage == null || userMessage.trim().isEmpty()) ? "What is in this image?"
-                    : userMessage;
-            contentList.add(Map.of("type", "text", "text", text));
-            contentList.add(Map.of("type", "image_url", "image_url", Map.of("url", base64Image)));
-
-            Map<String, Object> userMsg = Map.of("role", "user", "content", contentList);
-            List<Map<String, Object>> messages = List.of(userMsg);
-
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("model", GROQ_VISION_MODEL);
-            payload.put("messages", messages);
-            payload.put("temperature", 0.6);
-            payload.put("max_completion_tokens", 1024);
-
-            String requestBody = mapper.writeValueAsString(payload);
-            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(url))
-                    .header("Authorization", "Bearer " + GROQ_API_KEY).header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(requestBody)).build();
-
-            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() == 200) {
-                JsonNode root = mapper.readTree(response.body());
-                return root.path("choices").get(0).path("message").path("content").asText();
-            } else
-                return "Vision Error: " + response.statusCode();
-        } catch (Exception e) {
-            return "Failed to analyze image.";
-        }
+    /** Weather for a gazetteer place, by its coordinates. */
+    private CompletableFuture<String> getWeather(int place) {
+        return getWeather(gazetteer.latitude(place), gazetteer.longitude(place), gazetteer.name(place));
     }
 
-    private String getWeather(double lat, double lon) {
-        try {
-            return fetchWeather("https://api.openweathermap.org/data/2.5/weather?lat=" + lat + "&lon=" + lon + "&appid="
-                    + WEATHER_API_KEY + "&units=metric");
-        } catch (Exception e) {
-            return "Weather error.";
-        }
+    private CompletableFuture<String> getWeatherByCity(String city) {
+        return weatherCache.get("q:" + city.toLowerCase(),
+                k -> fetchWeather(WEATHER_BASE_URL + "/data/2.5/weather?q="
+                        + URLEncoder.encode(city, StandardCharsets.UTF_8) + "&appid=" + WEATHER_API_KEY
+                        + "&units=metric", null))
+                .exceptionally(e -> weatherError(e, "City not found."));
     }
 
-    private String getWeatherByCity(String city) {
-        try {
-            return fetchWeather("https://api.openweathermap.org/data/2.5/weather?q="
-                    + URLEncoder.encode(city, StandardCharsets.UTF_8) + "&appid=" + WEATHER_API_KEY + "&units=metric");
-        } catch (Exception e) {
-            return "City not found.";
-        }
+    private String weatherError(Throwable e, String fallback) {
+        int status = UpstreamException.statusOf(e);
+        return status > 0 ? "Weather Error: " + status : fallback;
     }
 
-    private String fetchWeather(String url) throws IOException, InterruptedException {
-        HttpResponse<String> res = http.send(HttpRequest.newBuilder().uri(URI.create(url)).build(),
-                HttpResponse.BodyHandlers.ofString());
-        if (res.statusCode() != 200) {
-            System.out.println("⚠️ WEATHER ERROR: " + res.statusCode() + " " + res.body());
-            return "Weather Error: " + res.statusCode();
-        }
-        JsonNode root = mapper.readTree(res.body());
-        return String.format("Weather in %s: %.1f°C, %s.", root.path("name").asText(),
-                root.path("main").path("temp").asDouble(), root.path("weather").get(0).path("description").asText());
+    private CompletableFuture<String> fetchWeather(String url, String place) {
+        long requestId = EventLog.currentRequest();
+        return upstream.get(UpstreamApi.WEATHER, url).thenApply(res -> {
+            if (res.statusCode() != 200) {
+                events.publish(EventLog.Type.UPSTREAM_ERROR, requestId, res.statusCode(), -1,
+                        UpstreamApi.WEATHER.label, res.body(), null);
+                throw new UpstreamException(res.statusCode(), "weather");
+            }
+            return parse(() -> UpstreamJson.weatherReport(Trees.MAPPER, res.body(), place));
+        });
     }
 
-    private String reverseGeocode(double lat, double lon) {
-        try {
-            HttpResponse<String> res = http.send(
-                    HttpRequest.newBuilder()
-                            .uri(URI.create("https://nominatim.openstreetmap.org/reverse?format=json&lat=" + lat
-                                    + "&lon=" + lon))
-                            .header("User-Agent", "AI").build(),
-                    HttpResponse.BodyHandlers.ofString());
-            JsonNode addr = mapper.readTree(res.body()).path("address");
-            return addr.path("city").asText(addr.path("town").asText("Unknown"));
-        } catch (Exception e) {
-            return "Unknown";
-        }
+    private CompletableFuture<String> reverseGeocode(double lat, double lon) {
+        double bLat = bucket(lat), bLon = bucket(lon);
+        return geocodeCache.get(bLat + "," + bLon,
+                k -> upstream.get(UpstreamApi.GEOCODE,
+                        GEOCODE_BASE_URL + "/reverse?format=json&lat=" + bLat + "&lon=" + bLon, "User-Agent", "AI")
+                        .thenApply(res -> {
+                            JsonNode addr = json(res.body()).path("address");
+                            if (res.statusCode() != 200 || addr.isMissingNode())
+                                throw new UpstreamException(res.statusCode(), "geocode");
+                            return addr.path("city").asText(addr.path("town").asText("Unknown"));
+                        }))
+                .exceptionally(e -> "Unknown");
     }
 
-    private String getNewsHeadlines() {
-        try {
-            HttpResponse<String> res = http.send(HttpRequest.newBuilder()
-                    .uri(URI.create(
-                            "https://gnews.io/api/v4/top-headlines?lang=en&country=in&max=3&apikey=" + GNEWS_API_KEY))
-                    .build(), HttpResponse.BodyHandlers.ofString());
-            StringBuilder sb = new StringBuilder("Top Headlines:\n");
-            for (JsonNode article : mapper.readTree(res.body()).path("articles"))
-                sb.append("- ").append(article.path("title").asText()).append("\n");
-            return sb.toString();
-        } catch (Exception e) {
-            return "News unavailable.";
-        }
+    private CompletableFuture<String> getNewsHeadlines() {
+        return newsCache.get("top-headlines",
+                k -> upstream.get(UpstreamApi.NEWS,
+                        GNEWS_BASE_URL + "/api/v4/top-headlines?lang=en&country=in&max=3&apikey=" + GNEWS_API_KEY)
+                        .thenApply(res -> {
+                            if (res.statusCode() != 200)
+                                throw new UpstreamException(res.statusCode(), "news");
+                            StringBuilder sb = new StringBuilder("Top Headlines:\n");
+                            for (JsonNode article : json(res.body()).path("articles"))
+                                sb.append("- ").append(article.path("title").asText()).append("\n");
+                            return sb.toString();
+                        }))
+                .exceptionally(e -> "News unavailable.");
     }
 
-    private String getYouTubeLink(String query) {
-        String cleanQuery = query.replaceAll("(?i)video|watch|play|paly|dekho|chalao|song|gana|music|on youtube", "")
-                .trim();
+    private CompletableFuture<String> getYouTubeLink(String query) {
+        String cleanQuery = IntentRouter.youTubeQuery(query);
         String searchUrl = "https://www.youtube.com/results?search_query="
                 + URLEncoder.encode(cleanQuery, StandardCharsets.UTF_8);
         if (cleanQuery.isEmpty())
-            return "https://www.youtube.com";
-        try {
-            HttpResponse<String> res = http.send(HttpRequest.newBuilder().uri(
-                    URI.create("https://www.googleapis.com/youtube/v3/search?part=snippet&type=video&maxResults=1&q="
-                            + URLEncoder.encode(cleanQuery, StandardCharsets.UTF_8) + "&key=" + YOUTUBE_API_KEY))
-                    .build(), HttpResponse.BodyHandlers.ofString());
-            if (res.statusCode() == 200) {
-                JsonNode root = mapper.readTree(res.body());
-                if (root.path("items").size() > 0)
-                    return "https://youtube.com/watch?v="
-                            + root.path("items").get(0).path("id").path("videoId").asText();
-            }
-            return searchUrl;
-        } catch (Exception e) {
-            return searchUrl;
-        }
+            return CompletableFuture.completedFuture("https://www.youtube.com");
+        return youTubeCache.get(cleanQuery.toLowerCase(),
+                k -> upstream.get(UpstreamApi.YOUTUBE,
+                        GOOGLE_BASE_URL + "/youtube/v3/search?part=snippet&type=video&maxResults=1&q="
+                                + URLEncoder.encode(cleanQuery, StandardCharsets.UTF_8) + "&key=" + YOUTUBE_API_KEY)
+                        .thenApply(res -> {
+                            JsonNode items = (res.statusCode() == 200) ? json(res.body()).path("items") : null;
+                            if (items == null || items.size() == 0)
+                                throw new UpstreamException(res.statusCode(), "youtube");
+                            return "https://youtube.com/watch?v=" + items.get(0).path("id").path("videoId").asText();
+                        }))
+                .exceptionally(e -> searchUrl);
     }
 
-    private String webSearchSummary(String query) {
-        try {
-            HttpResponse<String> res = http.send(HttpRequest.newBuilder()
-                    .uri(URI.create("https://www.googleapis.com/customsearch/v1?key=" + GOOGLE_API_KEY + "&cx="
-                            + SEARCH_ENGINE_ID + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&num=1"))
-                    .build(), HttpResponse.BodyHandlers.ofString());
-            return mapper.readTree(res.body()).path("items").get(0).path("snippet").asText();
-        } catch (Exception e) {
-            return "Search unavailable.";
-        }
+    private CompletableFuture<String> webSearchSummary(String query) {
+        ReplyCache.Key replyKey = searchReplies.key(query);
+        String cached = searchReplies.get(replyKey);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        return searchCache.get(query.trim().toLowerCase(),
+                k -> upstream.get(UpstreamApi.SEARCH, GOOGLE_BASE_URL + "/customsearch/v1?key=" + GOOGLE_API_KEY
+                        + "&cx=" + SEARCH_ENGINE_ID + "&q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&num=1")
+                        .thenApply(res -> {
+                            if (res.statusCode() != 200)
+                                throw new UpstreamException(res.statusCode(), "search");
+                            return json(res.body()).path("items").get(0).path("snippet").asText();
+                        }))
+                .thenApply(snippet -> {
+                    searchReplies.put(replyKey, snippet);
+                    return snippet;
+                })
+                .exceptionally(e -> "Search unavailable.");
+    }
+
+    private static String baseUrl(String key, String defaultUrl) {
+        return Env.get(key, Env.get("UPSTREAM_BASE_URL", defaultUrl));
+    }
+
+    /** Snaps a coordinate to a grid (~1 km at 2 decimals) so nearby users share cache entries. */
+    private static double bucket(double coordinate) {
+        return Math.round(coordinate * COORD_BUCKET_SCALE) / COORD_BUCKET_SCALE;
+    }
+
+    private HttpRequest buildChatRequest(Conversation conversation, String userMessage, boolean stream)
+            throws IOException {
+        List<byte[]> body = UpstreamJson.chatRequest(CHAT_PREFIX, conversation.messages(), userMessage, stream);
+        return HttpRequest.newBuilder()
+                .uri(URI.create(GROQ_BASE_URL + "/openai/v1/chat/completions"))
+                .header("Authorization", "Bearer " + GROQ_API_KEY).header("Content-Type", "application/json")
+                .POST(UpstreamJson.bodyPublisher(body)).build();
     }
 
-    private String chatWithGroq(String userMessage) {
+    private CompletableFuture<String> chatWithGroq(Conversation conversation, String userMessage,
+            ReplyCache.Key replyKey) {
+        String cached = chatReplies.get(replyKey);
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
         try {
-            List<Map<String, String>> messages = new ArrayList<>();
-            messages.add(Map.of("role", "system", "content", SYSTEM_PROMPT));
-            messages.addAll(chatHistory);
-            messages.add(Map.of("role", "user", "content", userMessage));
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("model", GROQ_CHAT_MODEL);
-            payload.put("messages", messages);
-            payload.put("temperature", 0.6);
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.groq.com/openai/v1/chat/completions"))
-                    .header("Authorization", "Bearer " + GROQ_API_KEY).header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(payload))).build();
-            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
-            if (response.statusCode() == 200)
-                return mapper.readTree(response.body()).path("choices").get(0).path("message").path("content").asText();
-            else
-                return "Brain Error " + response.statusCode();
+            return upstream.sendHedged(UpstreamApi.GROQ, buildChatRequest(conversation, userMessage, false),
+                    HttpResponse.BodyHandlers.ofString(), GROQ_HEDGE_MS)
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200)
+                            return "Brain Error " + response.statusCode();
+                        String reply = parse(() -> UpstreamJson.chatReply(json, response.body()));
+                        chatReplies.put(replyKey, reply);
+                        return reply;
+                    }).exceptionally(e -> "AI Error.");
         } catch (Exception e) {
-            return "AI Error.";
+            return CompletableFuture.completedFuture("AI Error.");
         }
     }
 
-    private String executeSystemCommand(String command) {
-        try {
-            String cleanCmd = command.replace("///CMD///", "");
-            cleanCmd = cleanCmd.replaceAll("\\[LANG:[a-zA-Z0-9-]+\\]", "");
-            cleanCmd = cleanCmd.trim();
+    // STREAMING LOGIC: forwards the reply sentence by sentence, completes with the full text when done
+    private CompletableFuture<String> streamChatWithGroq(Conversation conversation, String userMessage,
+            ReplyCache.Key replyKey, SseWriter sse) {
+        ReplyStreamParser parser = new ReplyStreamParser(new ReplyStreamParser.Listener() {
+            @Override
+            public void onLang(String lang) {
+                send("lang", Map.of("lang", lang));
+            }
 
-            System.out.println("EXECUTING: " + cleanCmd);
+            @Override
+            public void onSentence(String sentence) {
+                send("sentence", Map.of("text", sentence));
+            }
+
+            private void send(String event, Map<String, String> data) {
+                try {
+                    sse.event(event, toJson(data));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+
+        CompletableFuture<String> done = new CompletableFuture<>();
+        String cached = chatReplies.get(replyKey);
+        if (cached != null) {
+            // Replay the stored reply through the parser so the browser gets the same events
+            try {
+                parser.accept(cached);
+                parser.finish();
+                done.complete(parser.fullText());
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+            return done.exceptionally(e -> "AI Error.");
+        }
+        AtomicInteger status = new AtomicInteger();
+        Flow.Subscriber<String> lines = new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(Long.MAX_VALUE);
+            }
 
-            ProcessBuilder pb = new ProcessBuilder("powershell.exe", "-NoProfile", "-ExecutionPolicy", "Bypass",
-                    "-Command", cleanCmd);
-            Process p = pb.start();
+            @Override
+            public void onNext(String line) {
+                if (done.isDone() || !line.startsWith("data:"))
+                    return;
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]"))
+                    return;
+                try {
+                    parser.accept(parse(() -> UpstreamJson.chatDelta(json, data)));
+                } catch (RuntimeException e) {
+                    // Bad chunk or the browser went away: stop pulling tokens
+                    subscription.cancel();
+                    done.completeExceptionally(e);
+                }
+            }
 
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null)
-                    output.append(line).append("\n");
+            @Override
+            public void onError(Throwable t) {
+                done.completeExceptionally(t);
             }
 
-            StringBuilder errorOutput = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null)
-                    errorOutput.append(line).append("\n");
+            @Override
+            public void onComplete() {
+                if (status.get() != 200) {
+                    done.complete("Brain Error " + status.get());
+                    return;
+                }
+                try {
+                    parser.finish();
+                    chatReplies.put(replyKey, parser.fullText());
+                    done.complete(parser.fullText());
+                } catch (RuntimeException e) {
+                    done.completeExceptionally(e);
+                }
             }
+        };
+
+        try {
+            upstream.send(UpstreamApi.GROQ, buildChatRequest(conversation, userMessage, true), info -> {
+                status.set(info.statusCode());
+                return HttpResponse.BodySubscribers.fromLineSubscriber(lines);
+            }).whenComplete((res, e) -> {
+                if (e != null)
+                    done.completeExceptionally(e);
+            });
+        } catch (Exception e) {
+            done.completeExceptionally(e);
+        }
+        return done.exceptionally(e -> "AI Error.");
+    }
 
-            p.waitFor(5, TimeUnit.SECONDS);
+    private CompletableFuture<String> runCommand(String command, long requestId) {
+        return CompletableFuture.supplyAsync(() -> executeSystemCommand(command, requestId), asyncExecutor);
+    }
 
-            String result = output.toString().trim();
-            String error = errorOutput.toString().trim();
+    private String executeSystemCommand(String command, long requestId) {
+        String cleanCmd = null;
+        try {
+            cleanCmd = command.replace("///CMD///", "");
+            cleanCmd = LANG_TAG.matcher(cleanCmd).replaceAll("");
+            cleanCmd = cleanCmd.trim();
 
-            if (!error.isEmpty()) {
-                System.out.println("CMD Error: " + error);
-                return "Command failed: " + error;
+            long start = System.nanoTime();
+            ShellWorkerPool.Result result = shells.run(cleanCmd);
+            // Exit code -1 stands for a command that was killed for running too long
+            events.publish(EventLog.Type.COMMAND, requestId, result.timedOut() ? -1 : result.exitCode(),
+                    System.nanoTime() - start, cleanCmd, null, null);
+            if (result.timedOut())
+                return "Command timed out.";
+
+            if (!result.stderr().isEmpty()) {
+                events.publish(EventLog.Type.COMMAND_ERROR, requestId, result.exitCode(), -1, cleanCmd,
+                        result.stderr(), null);
+                return "Command failed: " + result.stderr();
             }
+            if (result.exitCode() != 0)
+                return "Command failed with exit code " + result.exitCode() + ".";
 
-            return result.isEmpty() ? "Executed." : result;
+            return result.stdout().isEmpty() ? "Executed." : result.stdout();
 
         } catch (Exception e) {
+            events.publish(EventLog.Type.COMMAND_ERROR, requestId, -1, -1, cleanCmd, null, e);
             return "Failed to execute.";
         }
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        long started = System.nanoTime();
+        long requestId = EventLog.newRequestId();
+        Metrics.chatStarted(req.getContentLengthLong());
         setCorsHeaders(resp);
-        resp.setContentType("application/json");
+        resp.setHeader("X-Request-Id", EventLog.hex(requestId));
         resp.setCharacterEncoding("UTF-8");
+        boolean stream = "/chat/stream".equals(req.getServletPath());
+        if (stream) {
+            resp.setContentType("text/event-stream");
+            resp.setHeader("Cache-Control", "no-cache");
+        } else {
+            resp.setContentType("application/json");
+        }
 
-        try {
-            Map<String, Object> body = mapper.readValue(req.getInputStream(), new TypeReference<>() {
-            });
-            String msg = (String) body.get("message");
-            String image = (String) body.get("image");
-            String lang = (String) body.getOrDefault("lang", "en-US");
-            Map<String, Object> loc = (Map<String, Object>) body.get("location");
-
-            Double lat = null, lon = null;
-            if (loc != null) {
-                if (loc.get("latitude") instanceof Number)
-                    lat = ((Number) loc.get("latitude")).doubleValue();
-                if (loc.get("longitude") instanceof Number)
-                    lon = ((Number) loc.get("longitude")).doubleValue();
+        // Read the body on the container thread, then hand the turn off so no thread waits on upstreams
+        AsyncContext async = req.startAsync();
+        async.setTimeout(REQUEST_TIMEOUT_MS);
+        SseWriter sse = stream ? new SseWriter(resp.getWriter()) : null;
+        AtomicBoolean finished = new AtomicBoolean();
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                finish(async, finished, sse, "error", Map.of("error", "Error: request timed out"));
             }
 
-            String reply = "";
-
-            if (image != null && !image.isEmpty()) {
-                reply = analyzeImageWithGroq(msg, image);
-            } else if (conversationContext.equals("WEATHER_CITY") && (msg.contains("location") || msg.contains("my"))) {
-                reply = (lat != null) ? getWeather(lat, lon) : "Need GPS.";
-                conversationContext = "NONE";
-            } else if (isNavigation(msg)) {
-                reply = "Opening Google Maps...";
-                conversationContext = "NONE";
-            } else if (isWeather(msg)) {
-                String city = extractCity(msg);
-                if (city != null) {
-                    reply = getWeatherByCity(city);
-                    conversationContext = "NONE";
-                } else if (lat != null && (msg.contains("my") || msg.contains("current"))) {
-                    reply = getWeather(lat, lon);
-                    conversationContext = "NONE";
-                } else {
-                    reply = "Which city?";
-                    conversationContext = "WEATHER_CITY";
-                }
-            } else if (isCurrentLocation(msg)) {
-                reply = (lat != null) ? "Near " + reverseGeocode(lat, lon) : "Need GPS.";
-            } else if (isYouTube(msg)) {
-                String link = getYouTubeLink(msg);
-                executeSystemCommand("Start-Process '" + link + "'");
-                reply = "Opening YouTube: " + msg.replaceAll("(?i)play|song|video", "").trim();
-                conversationContext = "NONE";
-            } else if (isDirectSearch(msg)) {
-                String q = msg.replaceAll("(?i)search for|search|google|on internet", "").trim();
-                executeSystemCommand("Start-Process 'https://www.google.com/search?q="
-                        + URLEncoder.encode(q, StandardCharsets.UTF_8) + "'");
-                reply = "Searching Google: " + q;
-                conversationContext = "NONE";
-            } else if (isNews(msg)) {
-                reply = getNewsHeadlines();
-                conversationContext = "NONE";
-            } else if (isGoogleQuestion(msg)) {
-                reply = webSearchSummary(msg);
-                conversationContext = "NONE";
-            } else {
-                String aiResponse = chatWithGroq(msg);
-                if (aiResponse.contains("///CMD///")) {
-                    String result = executeSystemCommand(aiResponse);
-                    reply = result;
-                } else {
-                    reply = aiResponse;
-                }
-                conversationContext = "NONE";
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
             }
 
-            if (!reply.isEmpty()) {
-                addToHistory("user", msg);
-                addToHistory("assistant", reply);
+            @Override
+            public void onStartAsync(AsyncEvent event) {
             }
-            mapper.writeValue(resp.getOutputStream(), Map.of("reply", reply, "lang", lang));
+        });
 
+        String lang = "en-US";
+        CompletableFuture<String> reply;
+        try {
+            // A rate-limited or malformed request gets no session or conversation out of us
+            admission.checkRate(req);
+            ChatRequest chat = ChatRequest.read(req, requestJson, MAX_IMAGE_BYTES);
+            if (chat.image() != null)
+                chat.image().checkPixels(IMAGE_MAX_PIXELS);
+            lang = chat.lang();
+            Conversation conversation = conversations.get(req.getSession(true).getId());
+            IntentRouter.Intent intent = (chat.image() != null) ? null : router.route(chat.message());
+            reply = admission.run(costClass(conversation, chat, intent), () -> EventLog.withRequest(requestId,
+                    () -> dispatch(conversation, chat, intent, sse, started, requestId)));
+        } catch (PayloadTooLargeException e) {
+            resp.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            reply = CompletableFuture.failedFuture(e);
+        } catch (BadRequestException e) {
+            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            reply = CompletableFuture.failedFuture(e);
         } catch (Exception e) {
-            e.printStackTrace();
-            mapper.writeValue(resp.getOutputStream(), Map.of("error", "Error: " + e.getMessage()));
+            reply = CompletableFuture.failedFuture(e);
+        }
+
+        String replyLang = lang;
+        reply.whenComplete((text, err) -> {
+            ShedException shed = ShedException.of(err);
+            if (err == null) {
+                finish(async, finished, sse, "done", Map.of("reply", text, "lang", replyLang));
+            } else if (shed != null) {
+                resp.setStatus(shed.status());
+                resp.setHeader("Retry-After", String.valueOf(shed.retryAfterSeconds()));
+                events.publish(EventLog.Type.CHAT_SHED, requestId, shed.status(), System.nanoTime() - started,
+                        null, null, null);
+                finish(async, finished, sse, "error", Map.of("error", shed.status() == 429
+                        ? "Too many messages, slow down a little." : "The assistant is busy, try again shortly.",
+                        "retryAfter", String.valueOf(shed.retryAfterSeconds())));
+            } else {
+                Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause()
+                        : err;
+                events.publish(EventLog.Type.TURN_FAILED, requestId, resp.getStatus(), System.nanoTime() - started,
+                        null, null, cause);
+                finish(async, finished, sse, "error", Map.of("error", "Error: " + cause.getMessage()));
+            }
+        });
+    }
+
+    private void finish(AsyncContext async, AtomicBoolean finished, SseWriter sse, String event,
+            Map<String, String> data) {
+        if (!finished.compareAndSet(false, true))
+            return;
+        Metrics.chatFinished();
+        try {
+            if (sse != null)
+                sse.event(event, toJson(data));
+            else
+                async.getResponse().getOutputStream().write(toJson(data).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Client already gone; nothing left to tell it
+        } finally {
+            async.complete();
         }
     }
-}
\ No newline at end of file
+
+    /** Whether the message answers a pending "Which city?" with a known place or with "my location". */
+    private boolean answersCityQuestion(Conversation conversation, String msg) {
+        return conversation.context().equals("WEATHER_CITY")
+                && (msg.contains("location") || msg.contains("my") || gazetteer.find(msg) >= 0);
+    }
+
+    /**
+     * What serving the turn will cost, following the same branches as {@link #dispatch}. The message is
+     * routed once, before both; intent is null for an image turn.
+     */
+    private CostClass costClass(Conversation conversation, ChatRequest chat, IntentRouter.Intent intent) {
+        if (chat.image() != null)
+            return CostClass.VISION;
+        if (answersCityQuestion(conversation, chat.message()))
+            return CostClass.CHEAP;
+        return intent == IntentRouter.Intent.CHAT ? CostClass.LLM : CostClass.CHEAP;
+    }
+
+    private CompletableFuture<String> dispatch(Conversation conversation, ChatRequest chat,
+            IntentRouter.Intent intent, SseWriter sse, long started, long requestId) {
+        String msg = chat.message();
+        VisionImage image = chat.image();
+        Double lat = chat.latitude(), lon = chat.longitude();
+
+        CompletableFuture<String> reply;
+        int route;
+
+        if (image != null) {
+            route = Metrics.VISION;
+            reply = analyzeImageWithGroq(msg, image);
+        } else if (answersCityQuestion(conversation, msg)) {
+            route = Metrics.route(IntentRouter.Intent.WEATHER);
+            int place = gazetteer.find(msg);
+            reply = (place >= 0) ? getWeather(place)
+                    : (lat != null) ? getWeather(lat, lon) : CompletableFuture.completedFuture("Need GPS.");
+            conversation.setContext("NONE");
+        } else {
+            route = Metrics.route(intent);
+            switch (intent) {
+                case NAVIGATION -> {
+                    reply = CompletableFuture.completedFuture("Opening Google Maps...");
+                    conversation.setContext("NONE");
+                }
+                case WEATHER -> {
+                    // A known place goes by coordinates; anything else is left for the API to make sense of
+                    int place = gazetteer.find(msg);
+                    String city = (place < 0) ? IntentRouter.extractCity(msg) : null;
+                    // Code 1: found in the gazetteer, 0: left to the weather API, -1: no place at all
+                    events.publish(EventLog.Type.WEATHER_PLACE, place >= 0 ? 1 : city != null ? 0 : -1, -1, msg,
+                            place >= 0 ? gazetteer.name(place) : city);
+                    if (place >= 0) {
+                        reply = getWeather(place);
+                        conversation.setContext("NONE");
+                    } else if (city != null) {
+                        reply = getWeatherByCity(city);
+                        conversation.setContext("NONE");
+                    } else if (lat != null && (msg.contains("my") || msg.contains("current"))) {
+                        reply = getWeather(lat, lon);
+                        conversation.setContext("NONE");
+                    } else {
+                        reply = CompletableFuture.completedFuture("Which city?");
+                        conversation.setContext("WEATHER_CITY");
+                    }
+                }
+                case CURRENT_LOCATION -> reply = (lat != null)
+                        ? reverseGeocode(lat, lon).thenApply(place -> "Near " + place)
+                        : CompletableFuture.completedFuture("Need GPS.");
+                case YOUTUBE -> {
+                    reply = getYouTubeLink(msg)
+                            .thenCompose(link -> runCommand("Start-Process '" + link + "'", requestId))
+                            .thenApply(ignored -> "Opening YouTube: " + IntentRouter.youTubeTitle(msg));
+                    conversation.setContext("NONE");
+                }
+                case DIRECT_SEARCH -> {
+                    String q = IntentRouter.searchQuery(msg);
+                    reply = runCommand("Start-Process 'https://www.google.com/search?q="
+                            + URLEncoder.encode(q, StandardCharsets.UTF_8) + "'", requestId)
+                            .thenApply(ignored -> "Searching Google: " + q);
+                    conversation.setContext("NONE");
+                }
+                case NEWS -> {
+                    reply = getNewsHeadlines();
+                    conversation.setContext("NONE");
+                }
+                case GOOGLE_QUESTION -> {
+                    reply = webSearchSummary(msg);
+                    conversation.setContext("NONE");
+                }
+                default -> {
+                    // A turn answering a pending question depends on it; never share its reply
+                    ReplyCache.Key replyKey = conversation.context().equals("NONE") ? chatReplies.key(msg) : null;
+                    CompletableFuture<String> aiResponse = (sse != null)
+                            ? streamChatWithGroq(conversation, msg, replyKey, sse)
+                            : chatWithGroq(conversation, msg, replyKey);
+                    reply = aiResponse.thenCompose(ai -> ai.contains("///CMD///") ? runCommand(ai, requestId)
+                            : CompletableFuture.completedFuture(ai));
+                    conversation.setContext("NONE");
+                }
+            }
+        }
+
+        return reply.thenApply(text -> {
+            if (!text.isEmpty()) {
+                conversation.addExchange(msg, text);
+            }
+            return text;
+        }).whenComplete((text, e) -> {
+            Metrics.chatCompleted(route, started, e == null);
+            events.publish(EventLog.Type.CHAT_TURN, requestId, e == null ? 200 : 500, System.nanoTime() - started,
+                    Metrics.routeLabel(route), null, null);
+        });
+    }
+}
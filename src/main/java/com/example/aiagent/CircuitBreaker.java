@@ -0,0 +1,62 @@
+package com.example.aiagent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consecutive-failure circuit breaker.
+ *
+ * After failureThreshold failures in a row the circuit opens and calls are refused without touching the
+ * network. Once openMillis have passed, a single trial call is let through: success closes the circuit,
+ * failure opens it for another period.
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // 0 while closed; otherwise when the circuit last opened
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /** Whether a call may go ahead. A true answer while half-open makes this caller the trial call. */
+    boolean tryAcquire() {
+        long opened = openedAt.get();
+        if (opened == 0)
+            return true;
+        if (System.nanoTime() - opened < openNanos)
+            return false;
+        return trialInFlight.compareAndSet(false, true);
+    }
+
+    void onSuccess() {
+        consecutiveFailures.set(0);
+        openedAt.set(0);
+        trialInFlight.set(false);
+    }
+
+    void onFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold || openedAt.get() != 0) {
+            // nanoTime can legitimately be 0; keep 0 reserved for "closed"
+            long now = System.nanoTime();
+            openedAt.set(now == 0 ? 1 : now);
+        }
+        trialInFlight.set(false);
+    }
+
+    /** The trial call (or any call) ended without telling us anything, e.g. it was cancelled. */
+    void onIgnored() {
+        trialInFlight.set(false);
+    }
+
+    boolean isOpen() {
+        return openedAt.get() != 0;
+    }
+}
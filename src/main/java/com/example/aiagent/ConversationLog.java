@@ -0,0 +1,645 @@
+package com.example.aiagent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable, append-only log of every conversation's turns and dialogue context, so history survives a
+ * restart.
+ *
+ * Records go into fixed-size memory-mapped segment files. Appending is a CAS on the segment's write
+ * position plus a copy into the mapping, so concurrent sessions never wait on each other. Every record is
+ * CRC-checked and carries its session's own sequence number, which is what orders a session's records,
+ * not their position in the log. Memory only holds a small index per session (where its last turns and
+ * its current context are), so restoring a session reads exactly those records and nothing else.
+ *
+ * On startup each finished segment contributes its index file and only the segment that was being
+ * written is scanned, skipping torn records. A background task forgets sessions idle past the timeout,
+ * writes index files for finished segments and compacts the oldest segments by copying their few live
+ * records forward and deleting the file. Oldest-first keeps a session's end marker alive for as long as
+ * any of its older records are.
+ *
+ * One process owns a log directory at a time.
+ */
+final class ConversationLog implements AutoCloseable {
+
+    /** One restored turn. */
+    record Turn(String role, String content) {
+    }
+
+    /** What survives of a session: its last turns oldest-first, and its context (null if never set). */
+    record Restored(List<Turn> turns, String context) {
+    }
+
+    // Into the event log, through EventLogSlf4j
+    private static final Logger LOG = LoggerFactory.getLogger(ConversationLog.class);
+
+    // Record: length, CRC32C of the rest, type, session sequence, timestamp, id length, id, UTF-8 text.
+    // Records start on 8-byte boundaries; a zero length means nothing was written there.
+    private static final int HEADER = 4 + 4 + 1 + 4 + 8 + 2;
+    private static final int ALIGN = 8;
+    private static final byte USER = 1;
+    private static final byte ASSISTANT = 2;
+    private static final byte CONTEXT = 3;
+    private static final byte END = 4;
+    private static final int INDEX_MAGIC = 0x434c4931; // "CLI1"
+    // Compact a finished segment once less than this share of it is still live...
+    private static final double COMPACT_LIVE_RATIO = 0.5;
+    // ...or whatever its live share, while more finished segments than this are kept
+    private static final int MAX_SEALED_SEGMENTS = 8;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxTurns;
+    private final long idleMillis;
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SessionIndex> sessions = new ConcurrentHashMap<>();
+    private final List<Path> undeleted = new ArrayList<>();
+    // Rolling to a new segment must not wait for a maintenance pass, which holds the log's monitor
+    private final Object rollLock = new Object();
+    private final ScheduledExecutorService maintenance;
+    private volatile Segment active;
+
+    ConversationLog(Path dir, int segmentBytes, int maxTurns, long idleMillis, long maintenanceMillis)
+            throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxTurns = maxTurns;
+        this.idleMillis = idleMillis;
+        recover();
+        if (maintenanceMillis > 0) {
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "conversation-log");
+                t.setDaemon(true);
+                return t;
+            });
+            maintenance.scheduleWithFixedDelay(this::maintainQuietly, maintenanceMillis, maintenanceMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            maintenance = null;
+        }
+    }
+
+    /**
+     * The log in CONVERSATION_LOG_DIR, or null when that is unset. Segment size from
+     * CONVERSATION_LOG_SEGMENT_MB, compaction period from CONVERSATION_LOG_COMPACT_SECONDS.
+     */
+    static ConversationLog fromEnv(int maxTurns, long idleMillis) {
+        String dir = Env.get("CONVERSATION_LOG_DIR");
+        if (dir == null || dir.isBlank())
+            return null;
+        try {
+            return new ConversationLog(Paths.get(dir),
+                    Integer.parseInt(Env.get("CONVERSATION_LOG_SEGMENT_MB", "16")) << 20, maxTurns, idleMillis,
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(Env.get("CONVERSATION_LOG_COMPACT_SECONDS", "300"))));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open conversation log in " + dir, e);
+        }
+    }
+
+    // ---------- WRITING ----------
+
+    void appendTurn(String sessionId, String role, String content) {
+        append(sessionId, "user".equals(role) ? USER : ASSISTANT, content);
+    }
+
+    void appendContext(String sessionId, String context) {
+        append(sessionId, CONTEXT, context);
+    }
+
+    /** Marks the session as over; it is not restored again and its records become garbage. */
+    void end(String sessionId) {
+        SessionIndex session = sessions.remove(sessionId);
+        if (session == null)
+            return;
+        synchronized (session) {
+            session.removed = true;
+            write(END, sessionId, session.nextSeq++, System.currentTimeMillis(), "");
+        }
+    }
+
+    boolean contains(String sessionId) {
+        return sessions.containsKey(sessionId);
+    }
+
+    int sessionCount() {
+        return sessions.size();
+    }
+
+    private void append(String sessionId, byte type, String text) {
+        while (true) {
+            SessionIndex session = sessions.computeIfAbsent(sessionId, id -> new SessionIndex(maxTurns));
+            // Holding the session's lock keeps its sequence numbers in index order
+            synchronized (session) {
+                if (session.removed)
+                    continue; // expired between lookup and lock; start a fresh index
+                int seq = session.nextSeq++;
+                long now = System.currentTimeMillis();
+                long address = write(type, sessionId, seq, now, text);
+                if (address < 0)
+                    return;
+                session.lastWrite = now;
+                if (type == CONTEXT)
+                    session.setContext(seq, address);
+                else
+                    session.addTurn(seq, address);
+                return;
+            }
+        }
+    }
+
+    /** Appends one record and returns its address, or -1 if it is too large to log. */
+    private long write(byte type, String sessionId, int seq, long timestamp, String text) {
+        byte[] record = encode(type, sessionId, seq, timestamp, text);
+        if (record.length > segmentBytes / 4) {
+            LOG.warn("Skipped a {}-byte record for session {}", record.length, sessionId);
+            return -1;
+        }
+        int reserved = align(record.length);
+        while (true) {
+            Segment segment = active;
+            int at = segment.reserve(reserved);
+            if (at >= 0) {
+                segment.map.put(at + 4, record, 4, record.length - 4);
+                // Length last: a record only exists once it is complete
+                segment.map.putInt(at, record.length);
+                segment.committed.addAndGet(reserved);
+                return address(segment.id, at);
+            }
+            roll(segment);
+        }
+    }
+
+    private void roll(Segment full) {
+        synchronized (rollLock) {
+            if (active != full)
+                return;
+            try {
+                Segment next = openSegment(full.id + 1, true);
+                segments.put(next.id, next);
+                active = next;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            full.sealed = true;
+        }
+    }
+
+    private static byte[] encode(byte type, String sessionId, int seq, long timestamp, String text) {
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + id.length + body.length;
+        ByteBuffer b = ByteBuffer.allocate(length);
+        b.putInt(length).putInt(0).put(type).putInt(seq).putLong(timestamp).putShort((short) id.length).put(id)
+                .put(body);
+        CRC32C crc = new CRC32C();
+        crc.update(b.array(), 8, length - 8);
+        b.putInt(4, (int) crc.getValue());
+        return b.array();
+    }
+
+    // ---------- READING ----------
+
+    /** The session's last turns and context, or null if the log knows nothing of it. */
+    Restored restore(String sessionId) {
+        // A compaction may move records between taking the addresses and reading them; then look again
+        for (int attempt = 0; attempt < 3; attempt++) {
+            SessionIndex session = sessions.get(sessionId);
+            if (session == null)
+                return null;
+            long[] turns;
+            long context;
+            synchronized (session) {
+                turns = Arrays.copyOf(session.addresses, session.size);
+                context = session.context;
+            }
+            List<Turn> restored = new ArrayList<>(turns.length);
+            boolean moved = false;
+            for (long address : turns) {
+                Record r = read(address);
+                if (r == null) {
+                    moved = true;
+                    break;
+                }
+                restored.add(new Turn(r.type == USER ? "user" : "assistant", r.text()));
+            }
+            Record c = (context < 0 || moved) ? null : read(context);
+            if (!moved && (context < 0 || c != null))
+                return new Restored(restored, c == null ? null : c.text());
+        }
+        return null;
+    }
+
+    private Record read(long address) {
+        Segment segment = segments.get((int) (address >>> 32));
+        return segment == null ? null : segment.read((int) address);
+    }
+
+    // ---------- MAINTENANCE ----------
+
+    private void maintainQuietly() {
+        try {
+            maintain();
+        } catch (RuntimeException | IOException e) {
+            LOG.warn("Maintenance failed", e);
+        }
+    }
+
+    /** Forgets idle sessions, indexes finished segments and compacts the oldest ones. */
+    synchronized void maintain() throws IOException {
+        long now = System.currentTimeMillis();
+        sessions.forEach((id, session) -> {
+            synchronized (session) {
+                if (now - session.lastWrite > idleMillis && !session.removed) {
+                    // The end marker keeps these records from being restored if the id ever comes back
+                    write(END, id, session.nextSeq++, now, "");
+                    session.removed = true;
+                    sessions.remove(id, session);
+                }
+            }
+        });
+
+        List<Segment> sealed = new ArrayList<>();
+        for (Segment segment : segments.values())
+            if (segment.sealed && segment != active)
+                sealed.add(segment);
+        sealed.sort((a, b) -> Integer.compare(a.id, b.id));
+        for (Segment segment : sealed)
+            if (!segment.indexed && segment.settled())
+                writeIndex(segment);
+
+        Map<Integer, Long> live = liveBytes();
+        int remaining = sealed.size();
+        for (Segment segment : sealed) {
+            if (!segment.indexed)
+                break; // writers still finishing; keep oldest-first order
+            double ratio = (double) live.getOrDefault(segment.id, 0L) / Math.max(1, segment.reserved.get());
+            if (ratio >= COMPACT_LIVE_RATIO && remaining <= MAX_SEALED_SEGMENTS)
+                break;
+            compact(segment);
+            remaining--;
+        }
+        retryDeletes();
+    }
+
+    private Map<Integer, Long> liveBytes() {
+        Map<Integer, Long> live = new HashMap<>();
+        for (SessionIndex session : sessions.values()) {
+            long[] addresses;
+            synchronized (session) {
+                addresses = Arrays.copyOf(session.addresses, session.size + 1);
+                addresses[session.size] = session.context;
+            }
+            for (long address : addresses) {
+                if (address < 0)
+                    continue;
+                Segment segment = segments.get((int) (address >>> 32));
+                if (segment != null)
+                    live.merge(segment.id, (long) align(segment.map.getInt((int) address)), Long::sum);
+            }
+        }
+        return live;
+    }
+
+    /** Copies the segment's live records to the head of the log, then drops the segment. */
+    private void compact(Segment segment) throws IOException {
+        for (Map.Entry<String, SessionIndex> entry : sessions.entrySet()) {
+            SessionIndex session = entry.getValue();
+            synchronized (session) {
+                for (int i = 0; i < session.size; i++)
+                    if (session.addresses[i] >>> 32 == segment.id)
+                        session.addresses[i] = copy(entry.getKey(), session.addresses[i]);
+                if (session.context >= 0 && session.context >>> 32 == segment.id)
+                    session.context = copy(entry.getKey(), session.context);
+            }
+        }
+        active.map.force();
+        segments.remove(segment.id);
+        segment.channel.close();
+        delete(indexPath(segment.id));
+        delete(segment.path);
+    }
+
+    private long copy(String sessionId, long address) {
+        Record r = read(address);
+        long moved = (r == null) ? -1 : write(r.type, sessionId, r.seq, r.timestamp, r.text());
+        return moved < 0 ? address : moved;
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Windows refuses while the mapping is alive; a leftover segment only holds duplicates
+            undeleted.add(path);
+        }
+    }
+
+    private void retryDeletes() {
+        List<Path> pending = new ArrayList<>(undeleted);
+        undeleted.clear();
+        pending.forEach(this::delete);
+    }
+
+    private void writeIndex(Segment segment) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+        out.putInt(INDEX_MAGIC).putInt(0);
+        int count = 0;
+        for (int offset = 0; offset + HEADER <= segment.reserved.get();) {
+            Record r = segment.read(offset);
+            if (r == null) {
+                offset += ALIGN;
+                continue;
+            }
+            byte[] id = r.sessionId.getBytes(StandardCharsets.UTF_8);
+            if (out.remaining() < 19 + id.length + 4)
+                out = ByteBuffer.allocate(out.capacity() * 2).put(out.flip());
+            out.putInt(offset).put(r.type).putInt(r.seq).putLong(r.timestamp).putShort((short) id.length).put(id);
+            count++;
+            offset += align(r.length);
+        }
+        out.putInt(4, count);
+        CRC32C crc = new CRC32C();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        Path tmp = indexPath(segment.id).resolveSibling(segment.id + ".idx.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ch.write(out.flip());
+            ch.force(true);
+        }
+        segment.map.force();
+        Files.move(tmp, indexPath(segment.id), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        segment.indexed = true;
+    }
+
+    // ---------- RECOVERY ----------
+
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString()).filter(n -> n.matches("\\d{10}\\.log"))
+                    .forEach(n -> ids.add(Integer.parseInt(n.substring(0, 10))));
+        }
+        ids.sort(null);
+        for (int i = 0; i < ids.size(); i++) {
+            boolean tail = i == ids.size() - 1;
+            Segment segment = openSegment(ids.get(i), tail);
+            segments.put(segment.id, segment);
+            if (!tail && loadIndex(segment))
+                continue;
+            // The tail, or a segment whose index was never written: scan it, skipping torn records
+            int end = 0;
+            for (int offset = 0; offset + HEADER <= segment.capacity;) {
+                Record r = segment.read(offset);
+                if (r == null) {
+                    offset += ALIGN;
+                    continue;
+                }
+                recovered(segment.id, offset, r.type, r.seq, r.timestamp, r.sessionId);
+                offset += align(r.length);
+                end = offset;
+            }
+            segment.reserved.set(end);
+            segment.committed.set(end);
+            segment.sealed = !tail;
+        }
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(s -> now - s.lastWrite > idleMillis);
+
+        // Keep appending to the tail where the scan stopped
+        if (ids.isEmpty()) {
+            active = openSegment(1, true);
+            segments.put(active.id, active);
+        } else {
+            active = segments.get(ids.get(ids.size() - 1));
+        }
+        if (!sessions.isEmpty())
+            System.out.println("✅ Conversation log: restored " + sessions.size() + " sessions from "
+                    + segments.size() + " segments.");
+    }
+
+    private boolean loadIndex(Segment segment) throws IOException {
+        Path path = indexPath(segment.id);
+        if (!Files.exists(path))
+            return false;
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (in.limit() < 12 || in.getInt(0) != INDEX_MAGIC)
+            return false;
+        CRC32C crc = new CRC32C();
+        crc.update(in.array(), 0, in.limit() - 4);
+        if ((int) crc.getValue() != in.getInt(in.limit() - 4))
+            return false;
+        in.position(8);
+        for (int i = in.getInt(4); i > 0; i--) {
+            int offset = in.getInt();
+            byte type = in.get();
+            int seq = in.getInt();
+            long timestamp = in.getLong();
+            byte[] id = new byte[in.getShort()];
+            in.get(id);
+            recovered(segment.id, offset, type, seq, timestamp, new String(id, StandardCharsets.UTF_8));
+        }
+        segment.reserved.set(segment.capacity);
+        segment.committed.set(segment.capacity);
+        segment.sealed = true;
+        segment.indexed = true;
+        return true;
+    }
+
+    /**
+     * Replays one record into the index. Segments are replayed in order, and an end marker is always
+     * written after the session's earlier records and before any later use of the same id, so it simply
+     * forgets everything seen so far.
+     */
+    private void recovered(int segmentId, int offset, byte type, int seq, long timestamp, String sessionId) {
+        if (type == END) {
+            sessions.remove(sessionId);
+            return;
+        }
+        SessionIndex session = sessions.computeIfAbsent(sessionId, id -> new SessionIndex(maxTurns));
+        long address = address(segmentId, offset);
+        session.nextSeq = Math.max(session.nextSeq, seq + 1);
+        session.lastWrite = Math.max(session.lastWrite, timestamp);
+        if (type == CONTEXT)
+            session.setContext(seq, address);
+        else
+            session.addTurn(seq, address);
+    }
+
+    // ---------- SEGMENTS ----------
+
+    private Segment openSegment(int id, boolean writable) throws IOException {
+        Path path = dir.resolve(String.format("%010d.log", id));
+        FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+        int capacity = writable ? Math.max(segmentBytes, (int) channel.size()) : (int) channel.size();
+        MappedByteBuffer map = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                0, capacity);
+        return new Segment(id, path, channel, map, capacity);
+    }
+
+    private Path indexPath(int id) {
+        return dir.resolve(String.format("%010d.idx", id));
+    }
+
+    private static long address(int segmentId, int offset) {
+        return ((long) segmentId << 32) | offset;
+    }
+
+    private static int align(int length) {
+        return (length + ALIGN - 1) & -ALIGN;
+    }
+
+    @Override
+    public void close() {
+        if (maintenance != null)
+            maintenance.shutdownNow();
+        active.map.force();
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                // Closing only releases the descriptor; the data is in the mapping
+            }
+        }
+    }
+
+    private record Record(byte type, int seq, long timestamp, String sessionId, int length, ByteBuffer body) {
+        String text() {
+            return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        final int capacity;
+        // Bytes handed out to writers, and bytes they have finished writing
+        final AtomicInteger reserved = new AtomicInteger();
+        final AtomicInteger committed = new AtomicInteger();
+        volatile boolean sealed;
+        volatile boolean indexed;
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer map, int capacity) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.map = map;
+            this.capacity = capacity;
+        }
+
+        /** Start of a free range of the given length, or -1 if the segment is full. */
+        int reserve(int length) {
+            while (true) {
+                int at = reserved.get();
+                if (at + length > capacity)
+                    return -1;
+                if (reserved.compareAndSet(at, at + length))
+                    return at;
+            }
+        }
+
+        /** Every reserved byte has been written; only then may the segment be indexed. */
+        boolean settled() {
+            return committed.get() == reserved.get();
+        }
+
+        /** The complete, CRC-valid record at the offset, or null. */
+        Record read(int offset) {
+            if (offset < 0 || offset + HEADER > capacity)
+                return null;
+            int length = map.getInt(offset);
+            if (length < HEADER || length > capacity - offset)
+                return null;
+            CRC32C crc = new CRC32C();
+            crc.update(map.slice(offset + 8, length - 8));
+            if ((int) crc.getValue() != map.getInt(offset + 4))
+                return null;
+            byte type = map.get(offset + 8);
+            int idLength = map.getShort(offset + 21);
+            if (type < USER || type > END || idLength < 0 || HEADER + idLength > length)
+                return null;
+            byte[] id = new byte[idLength];
+            map.get(offset + HEADER, id);
+            int bodyAt = offset + HEADER + idLength;
+            return new Record(type, map.getInt(offset + 9), map.getLong(offset + 13),
+                    new String(id, StandardCharsets.UTF_8), length, map.slice(bodyAt, offset + length - bodyAt));
+        }
+    }
+
+    /** Where one session's live records are: its last turns ordered by sequence, and its latest context. */
+    private static final class SessionIndex {
+        final long[] addresses;
+        final int[] seqs;
+        int size;
+        long context = -1;
+        int contextSeq = -1;
+        int nextSeq;
+        long lastWrite;
+        boolean removed;
+
+        SessionIndex(int maxTurns) {
+            addresses = new long[maxTurns];
+            seqs = new int[maxTurns];
+        }
+
+        /** Keeps the newest turns by sequence; appends are in order, recovery may not be. */
+        void addTurn(int seq, long address) {
+            int i = size;
+            while (i > 0 && seqs[i - 1] > seq)
+                i--;
+            if (i > 0 && seqs[i - 1] == seq) {
+                addresses[i - 1] = address; // a copy left behind by an interrupted compaction
+                return;
+            }
+            if (size == addresses.length) {
+                if (i == 0)
+                    return; // older than every turn kept
+                System.arraycopy(addresses, 1, addresses, 0, size - 1);
+                System.arraycopy(seqs, 1, seqs, 0, size - 1);
+                size--;
+                i--;
+            }
+            System.arraycopy(addresses, i, addresses, i + 1, size - i);
+            System.arraycopy(seqs, i, seqs, i + 1, size - i);
+            addresses[i] = address;
+            seqs[i] = seq;
+            size++;
+        }
+
+        void setContext(int seq, long address) {
+            if (seq >= contextSeq) {
+                contextSeq = seq;
+                context = address;
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.aiagent;
+
+import jakarta.servlet.http.HttpSessionEvent;
+import jakarta.servlet.http.HttpSessionListener;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conversation memory per HTTP session.
+ *
+ * Each session gets its own {@link Conversation}: a fixed-size ring of turns trimmed to an estimated
+ * token budget, so the history sent to Groq stays bounded no matter how long someone talks. Turns are
+ * stored already serialized, so a chat request only splices them in instead of re-encoding the whole
+ * history every time. Sessions that go quiet are dropped on a lazy sweep, and immediately when Jetty
+ * destroys the HTTP session.
+ *
+ * With a {@link ConversationLog}, every turn and context change is also written to disk, and a session
+ * not in memory (after a restart) is restored from its last turns there.
+ */
+class ConversationStore implements HttpSessionListener, AutoCloseable {
+
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ConcurrentHashMap<String, Conversation> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final int maxTurns;
+    private final int tokenBudget;
+    private final long idleTimeoutMs;
+    private final ConversationLog log; // null keeps conversations in memory only
+
+    ConversationStore(int maxTurns, int tokenBudget, long idleTimeoutMs, ConversationLog log) {
+        this.maxTurns = maxTurns;
+        this.tokenBudget = tokenBudget;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.log = log;
+    }
+
+    /** Also opens the conversation log when CONVERSATION_LOG_DIR is set. */
+    static ConversationStore fromEnv() {
+        int maxTurns = Integer.parseInt(Env.get("CHAT_HISTORY_TURNS", "20"));
+        long idleTimeoutMs = TimeUnit.MINUTES.toMillis(Long.parseLong(Env.get("SESSION_IDLE_MINUTES", "30")));
+        return new ConversationStore(maxTurns, Integer.parseInt(Env.get("CHAT_HISTORY_TOKENS", "2000")),
+                idleTimeoutMs, ConversationLog.fromEnv(maxTurns, idleTimeoutMs));
+    }
+
+    Conversation get(String sessionId) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        Conversation conversation = sessions.computeIfAbsent(sessionId, this::open);
+        conversation.lastAccess = now;
+        return conversation;
+    }
+
+    /** Whether the session id has a conversation, here or in the log; lets a restarted server keep it. */
+    boolean isKnown(String sessionId) {
+        return sessions.containsKey(sessionId) || (log != null && log.contains(sessionId));
+    }
+
+    boolean isDurable() {
+        return log != null;
+    }
+
+    private Conversation open(String sessionId) {
+        Conversation conversation = new Conversation(maxTurns, tokenBudget, sessionId, log);
+        ConversationLog.Restored restored = (log == null) ? null : log.restore(sessionId);
+        if (restored != null)
+            conversation.restore(restored);
+        return conversation;
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    int loggedSize() {
+        return log == null ? 0 : log.sessionCount();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent se) {
+        forget(se.getSession().getId());
+    }
+
+    @Override
+    public void close() {
+        if (log != null)
+            log.close();
+    }
+
+    private void forget(String sessionId) {
+        sessions.remove(sessionId);
+        if (log != null)
+            log.end(sessionId);
+    }
+
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MS || !lastSweep.compareAndSet(last, now))
+            return;
+        sessions.forEach((id, c) -> {
+            if (now - c.lastAccess > idleTimeoutMs)
+                forget(id);
+        });
+    }
+
+    /** Rough token count: ~4 characters per token plus the per-message envelope. */
+    static int estimateTokens(String content) {
+        return content.length() / 4 + 4;
+    }
+
+    /** One session's history and dialogue state. All access is synchronized on the instance. */
+    static final class Conversation {
+        // Each turn as its {"role":...,"content":...} JSON object in UTF-8, see UpstreamJson.chatMessage
+        private final byte[][] messages;
+        private final int[] tokens;
+        private final int tokenBudget;
+        private final String id;
+        private final ConversationLog log;
+        private int head; // index of the oldest turn
+        private int size;
+        private int totalTokens;
+        private String context = "NONE";
+        volatile long lastAccess;
+
+        Conversation(int maxTurns, int tokenBudget) {
+            this(maxTurns, tokenBudget, null, null);
+        }
+
+        Conversation(int maxTurns, int tokenBudget, String id, ConversationLog log) {
+            this.messages = new byte[maxTurns][];
+            this.tokens = new int[maxTurns];
+            this.tokenBudget = tokenBudget;
+            this.id = id;
+            this.log = log;
+        }
+
+        synchronized void add(String role, String content) {
+            remember(role, content);
+            // Under the same lock, so the log sees this session's turns in the order they happened
+            if (log != null)
+                log.appendTurn(id, role, content);
+        }
+
+        synchronized void restore(ConversationLog.Restored restored) {
+            for (ConversationLog.Turn turn : restored.turns())
+                remember(turn.role(), turn.content());
+            if (restored.context() != null)
+                context = restored.context();
+        }
+
+        private void remember(String role, String content) {
+            if (size == messages.length)
+                dropOldest();
+            int slot = (head + size) % messages.length;
+            messages[slot] = UpstreamJson.chatMessage(role, content);
+            tokens[slot] = estimateTokens(content);
+            totalTokens += tokens[slot];
+            size++;
+            // Always keep the newest turn, even if it alone is over budget
+            while (totalTokens > tokenBudget && size > 1)
+                dropOldest();
+        }
+
+        /** Records a user message and the reply together, so concurrent turns never interleave. */
+        synchronized void addExchange(String userMessage, String reply) {
+            add("user", userMessage);
+            add("assistant", reply);
+        }
+
+        /** Encoded history oldest-first. The arrays are shared, never modified, and must not be. */
+        synchronized List<byte[]> messages() {
+            byte[][] out = new byte[size][];
+            for (int i = 0; i < size; i++)
+                out[i] = messages[(head + i) % messages.length];
+            return Arrays.asList(out);
+        }
+
+        synchronized String context() {
+            return context;
+        }
+
+        synchronized void setContext(String context) {
+            if (log != null && !context.equals(this.context))
+                log.appendContext(id, context);
+            this.context = context;
+        }
+
+        private void dropOldest() {
+            totalTokens -= tokens[head];
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.aiagent;
+
+import java.util.Locale;
+
+/**
+ * How expensive a /chat turn is to serve, decided before it is dispatched. Each class gets its own
+ * {@link AdaptiveLimiter}, so a Groq slowdown fills the LLM queue while "Opening Google Maps..." and
+ * cached weather keep flowing.
+ *
+ * Defaults can be overridden per class with ADMISSION_<NAME>_INITIAL_LIMIT, _MAX_LIMIT, _QUEUE,
+ * _QUEUE_TIMEOUT_MS and _TARGET_MS. A turn taking longer than the target counts as congestion.
+ */
+enum CostClass {
+    // Canned replies, shell launches and cached lookups (weather, news, YouTube, search)
+    CHEAP(64, 512, 256, 1_000, 3_000),
+    // Groq chat completions
+    LLM(16, 256, 64, 5_000, 15_000),
+    // Image decoding plus a Groq vision call
+    VISION(4, 32, 8, 5_000, 30_000);
+
+    final String label = name().toLowerCase(Locale.ROOT);
+    final int initialLimit;
+    final int maxLimit;
+    final int queue;
+    final long queueTimeoutMs;
+    final long targetMs;
+
+    CostClass(int initialLimit, int maxLimit, int queue, long queueTimeoutMs, long targetMs) {
+        this.initialLimit = setting("INITIAL_LIMIT", initialLimit);
+        this.maxLimit = setting("MAX_LIMIT", maxLimit);
+        this.queue = setting("QUEUE", queue);
+        this.queueTimeoutMs = setting("QUEUE_TIMEOUT_MS", queueTimeoutMs);
+        this.targetMs = setting("TARGET_MS", targetMs);
+    }
+
+    private int setting(String key, int defaultValue) {
+        return Integer.parseInt(Env.get("ADMISSION_" + name() + "_" + key, String.valueOf(defaultValue)));
+    }
+
+    private long setting(String key, long defaultValue) {
+        return Long.parseLong(Env.get("ADMISSION_" + name() + "_" + key, String.valueOf(defaultValue)));
+    }
+}
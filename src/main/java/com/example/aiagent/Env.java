@@ -0,0 +1,60 @@
+package com.example.aiagent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration shared by Main and the servlets: system environment, overridden by a local .env file,
+ * overridden by -D system properties of the same name.
+ */
+final class Env {
+
+    private static final Map<String, String> env = loadEnvVariables();
+
+    private Env() {
+    }
+
+    // -D properties are looked up by name rather than copied in, so java.*, os.* and user.* stay out
+    static String get(String key) {
+        String property = System.getProperty(key);
+        return (property != null) ? property : env.get(key);
+    }
+
+    static String get(String key, String defaultValue) {
+        String value = get(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    static boolean flag(String key) {
+        return Boolean.parseBoolean(get(key, "false"));
+    }
+
+    private static Map<String, String> loadEnvVariables() {
+        Map<String, String> envMap = new HashMap<>();
+        // 1. Load from System Environment (Cloud/Production)
+        envMap.putAll(System.getenv());
+
+        // 2. Load from .env file (Local Dev)
+        try {
+            List<String> lines = Files.readAllLines(Paths.get(".env"));
+            for (String line : lines) {
+                if (line.trim().isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] parts = line.split("=", 2);
+                if (parts.length == 2) {
+                    envMap.put(parts[0].trim(), parts[1].trim());
+                }
+            }
+            System.out.println("✅ Loaded keys from .env file.");
+        } catch (IOException e) {
+            System.out.println("⚠️ No .env file found. Using System Env variables.");
+        }
+
+        // 3. -D system properties (one-off runs, and tools that start the server in-process): see get()
+        return envMap;
+    }
+}
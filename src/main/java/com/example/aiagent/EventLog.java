@@ -0,0 +1,403 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Structured events from the request path, written as JSON lines by a background thread.
+ *
+ * Every event has the same few fields, held in parallel arrays that form a ring buffer. Publishing claims a
+ * slot with a CAS, stores references to strings that already exist, and marks the slot published; nothing
+ * is formatted or concatenated and no lock is taken, so request threads never wait on each other or on the
+ * disk. When the buffer is full the event is dropped and counted rather than blocking. The writer thread
+ * drains whatever is published, formats it, and writes and flushes it as one batch, then sleeps briefly so
+ * the next batch has time to fill. Files roll over at EVENT_LOG_MAX_MB into events.1.jsonl, events.2.jsonl
+ * and so on, keeping EVENT_LOG_FILES of them. EVENT_LOG_DIR=- writes to stdout instead, for platforms that
+ * collect it.
+ *
+ * High-volume types can be sampled, EVENT_LOG_SAMPLE=upstream_call=10,chat_turn=5 keeping one in ten and one
+ * in five; the line then says so, so counts can be scaled back up. Error types are never sampled.
+ *
+ * Each /chat turn gets a request id, carried on its thread while the turn is dispatched and captured by
+ * whatever continues the turn elsewhere, so the turn's upstream calls, commands and errors all carry it.
+ */
+final class EventLog implements AutoCloseable {
+
+    enum Type {
+        CHAT_TURN("chat_turn", false, 1),
+        CHAT_SHED("chat_shed", false, 10),
+        TURN_FAILED("turn_failed", true, 1),
+        UPSTREAM_CALL("upstream_call", false, 1),
+        UPSTREAM_ERROR("upstream_error", true, 1),
+        WEATHER_PLACE("weather_place", false, 10),
+        COMMAND("command", false, 1),
+        COMMAND_ERROR("command_error", true, 1),
+        LOG("log", true, 1);
+
+        final String label;
+        /** Never sampled, and written with the stack of its exception. */
+        final boolean error;
+        final int sampleEvery;
+
+        Type(String label, boolean error, int sampleEvery) {
+            this.label = label;
+            this.error = error;
+            this.sampleEvery = sampleEvery;
+        }
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final String FILE = "events";
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int MAX_TEXT = 2000;
+    private static final int MAX_FRAMES = 12;
+
+    // Unique across restarts as long as fewer than a million turns start in one millisecond
+    private static final AtomicLong REQUEST_IDS = new AtomicLong(System.currentTimeMillis() << 20);
+    private static final ThreadLocal<long[]> CURRENT_REQUEST = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final int mask;
+    private final int[] sampleEvery = new int[TYPES.length];
+    // Slot i holds the event whose sequence number is published[i]; -1 until the first one
+    private final AtomicLongArray published;
+    private final byte[] types;
+    private final long[] times;
+    private final long[] requests;
+    private final int[] codes;
+    private final long[] nanos;
+    private final String[] subjects;
+    private final String[] texts;
+    private final Throwable[] errors;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long drained;
+    private final LongAdder dropped = new LongAdder();
+
+    private final Path dir;
+    private final long maxFileBytes;
+    private final int keepFiles;
+    // One line per event: no separator between root values, the newline is written after each
+    private final JsonFactory json = JsonFactory.builder().enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER).build()
+            .setRootValueSeparator(null);
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream(1 << 16);
+    private OutputStream out;
+    private long fileBytes;
+    // Events in a batch mostly share their millisecond and often their request
+    private long lastTime = -1;
+    private String lastTimestamp;
+    private long lastRequest;
+    private String lastRequestHex;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private static final class Default {
+        static final EventLog INSTANCE = fromEnv();
+    }
+
+    /** The process-wide log, started on first use and flushed at shutdown. */
+    static EventLog get() {
+        return Default.INSTANCE;
+    }
+
+    private static EventLog fromEnv() {
+        String dir = Env.get("EVENT_LOG_DIR", "logs");
+        EventLog log = new EventLog(dir.equals("-") ? null : Paths.get(dir),
+                Integer.parseInt(Env.get("EVENT_LOG_BUFFER", "65536")),
+                Long.parseLong(Env.get("EVENT_LOG_MAX_MB", "64")) << 20,
+                Integer.parseInt(Env.get("EVENT_LOG_FILES", "5")), Env.get("EVENT_LOG_SAMPLE", ""));
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close));
+        System.out.println("✅ Event log: " + (log.dir == null ? "stdout" : log.dir.resolve(FILE + ".jsonl")));
+        return log;
+    }
+
+    /**
+     * @param dir      where events.jsonl and its rotated predecessors go, or null for stdout
+     * @param capacity events the buffer holds, rounded up to a power of two
+     * @param sampling comma-separated type=n pairs, keeping one event in n of that type
+     */
+    EventLog(Path dir, int capacity, long maxFileBytes, int keepFiles, String sampling) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mask = size - 1;
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            published.setPlain(i, -1);
+        types = new byte[size];
+        times = new long[size];
+        requests = new long[size];
+        codes = new int[size];
+        nanos = new long[size];
+        subjects = new String[size];
+        texts = new String[size];
+        errors = new Throwable[size];
+
+        for (Type type : TYPES)
+            sampleEvery[type.ordinal()] = type.sampleEvery;
+        for (String pair : sampling.split(",")) {
+            String[] kv = pair.split("=");
+            if (kv.length != 2)
+                continue;
+            for (Type type : TYPES)
+                if (type.label.equals(kv[0].trim()) && !type.error)
+                    sampleEvery[type.ordinal()] = Math.max(1, Integer.parseInt(kv[1].trim()));
+        }
+
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.keepFiles = keepFiles;
+        try {
+            out = open();
+        } catch (IOException e) {
+            System.out.println("⚠️ Event log: cannot open " + dir + ", writing to stdout: " + e);
+            out = System.out;
+        }
+        writer = Thread.ofPlatform().daemon().name("event-log").start(this::run);
+    }
+
+    // ---------- REQUEST IDS ----------
+    static long newRequestId() {
+        return REQUEST_IDS.incrementAndGet();
+    }
+
+    /** The id of the turn this thread is working on, or 0. */
+    static long currentRequest() {
+        return CURRENT_REQUEST.get()[0];
+    }
+
+    /** Runs work with request as the current request id of this thread. */
+    static <T> T withRequest(long request, Supplier<T> work) {
+        long[] current = CURRENT_REQUEST.get();
+        long previous = current[0];
+        current[0] = request;
+        try {
+            return work.get();
+        } finally {
+            current[0] = previous;
+        }
+    }
+
+    static String hex(long request) {
+        return HexFormat.of().toHexDigits(request);
+    }
+
+    // ---------- PUBLISHING (hot path) ----------
+    /** An event of the current request; see {@link #publish(Type, long, int, long, String, String, Throwable)}. */
+    void publish(Type type, int code, long nanos, String subject, String text) {
+        publish(type, currentRequest(), code, nanos, subject, text, null);
+    }
+
+    /**
+     * Queues an event for writing, unless it is sampled out or the buffer is full.
+     *
+     * @param code    a status, exit code or level, as the type defines it
+     * @param nanos   how long it took, or -1
+     * @param subject what it is about: an API, a command, a route; may be null
+     * @param text    free text such as an error body; may be null
+     * @param error   written with its stack for error types, as one line otherwise; may be null
+     */
+    void publish(Type type, long request, int code, long nanos, String subject, String text, Throwable error) {
+        int every = sampleEvery[type.ordinal()];
+        if (every > 1 && ThreadLocalRandom.current().nextInt(every) != 0)
+            return;
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - drained > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        int i = (int) seq & mask;
+        types[i] = (byte) type.ordinal();
+        times[i] = System.currentTimeMillis();
+        requests[i] = request;
+        codes[i] = code;
+        this.nanos[i] = nanos;
+        subjects[i] = subject;
+        texts[i] = text;
+        errors[i] = error;
+        published.setRelease(i, seq);
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /** Events published but not yet written. */
+    long pending() {
+        return claimed.get() - drained;
+    }
+
+    // ---------- WRITER ----------
+    private void run() {
+        while (true) {
+            boolean stopping = closed;
+            int written = drain();
+            if (written == 0 && stopping)
+                break;
+            // Let a batch build up unless the buffer is filling faster than that
+            if (pending() <= mask / 2)
+                LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+        try {
+            out.flush();
+            if (out != System.out)
+                out.close();
+        } catch (IOException e) {
+            // Shutting down; nowhere left to report it
+        }
+    }
+
+    /** Formats every published event, writes them as one batch and returns how many there were. */
+    private int drain() {
+        long next = drained;
+        if (published.getAcquire((int) next & mask) != next)
+            return 0;
+        int count = 0;
+        try (JsonGenerator gen = json.createGenerator(batch)) {
+            for (int i = (int) next & mask; published.getAcquire(i) == next; i = (int) next & mask) {
+                format(gen, i);
+                gen.writeRaw('\n');
+                subjects[i] = null;
+                texts[i] = null;
+                errors[i] = null;
+                drained = ++next;
+                count++;
+            }
+        } catch (IOException e) {
+            // Writing to memory
+        }
+        try {
+            batch.writeTo(out);
+            out.flush();
+            fileBytes += batch.size();
+            if (out != System.out && fileBytes >= maxFileBytes)
+                rotate();
+        } catch (IOException e) {
+            System.out.println("⚠️ Event log: write failed, " + count + " events lost: " + e);
+        }
+        batch.reset();
+        return count;
+    }
+
+    private void format(JsonGenerator gen, int i) throws IOException {
+        Type type = TYPES[types[i]];
+        gen.writeStartObject();
+        if (times[i] != lastTime) {
+            lastTime = times[i];
+            lastTimestamp = Instant.ofEpochMilli(lastTime).toString();
+        }
+        gen.writeStringField("ts", lastTimestamp);
+        gen.writeStringField("event", type.label);
+        if (requests[i] != 0) {
+            if (requests[i] != lastRequest) {
+                lastRequest = requests[i];
+                lastRequestHex = hex(lastRequest);
+            }
+            gen.writeStringField("request", lastRequestHex);
+        }
+        gen.writeNumberField("code", codes[i]);
+        if (nanos[i] >= 0)
+            gen.writeNumberField("ms", nanos[i] / 1_000L / 1000.0);
+        if (subjects[i] != null)
+            gen.writeStringField("subject", subjects[i]);
+        if (texts[i] != null)
+            gen.writeStringField("text", texts[i].length() > MAX_TEXT ? texts[i].substring(0, MAX_TEXT)
+                    : texts[i]);
+        Throwable error = errors[i];
+        if (error != null) {
+            gen.writeStringField("error", error.toString());
+            if (type.error)
+                stack(gen, error);
+        }
+        if (sampleEvery[type.ordinal()] > 1)
+            gen.writeNumberField("sample", sampleEvery[type.ordinal()]);
+        gen.writeEndObject();
+    }
+
+    private static void stack(JsonGenerator gen, Throwable error) throws IOException {
+        gen.writeArrayFieldStart("stack");
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t != error)
+                gen.writeString("caused by " + t);
+            StackTraceElement[] frames = t.getStackTrace();
+            for (int f = 0; f < frames.length && f < MAX_FRAMES; f++)
+                gen.writeString(frames[f].toString());
+        }
+        gen.writeEndArray();
+    }
+
+    private OutputStream open() throws IOException {
+        if (dir == null)
+            return System.out;
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE + ".jsonl");
+        fileBytes = Files.exists(file) ? Files.size(file) : 0;
+        return new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), 1 << 16);
+    }
+
+    /**
+     * events.jsonl becomes events.1.jsonl, events.1.jsonl becomes events.2.jsonl, and so on. If the new file
+     * cannot be opened the log goes to stdout, as it does when the first one cannot.
+     */
+    private void rotate() {
+        try {
+            out.close();
+            Files.deleteIfExists(dir.resolve(FILE + "." + keepFiles + ".jsonl"));
+            for (int n = keepFiles - 1; n >= 1; n--) {
+                Path older = dir.resolve(FILE + "." + n + ".jsonl");
+                if (Files.exists(older))
+                    Files.move(older, dir.resolve(FILE + "." + (n + 1) + ".jsonl"),
+                            StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (keepFiles > 0)
+                Files.move(dir.resolve(FILE + ".jsonl"), dir.resolve(FILE + ".1.jsonl"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            else
+                Files.delete(dir.resolve(FILE + ".jsonl"));
+        } catch (IOException e) {
+            // Carry on in the current file (or a new one) rather than in a closed stream
+            System.out.println("⚠️ Event log: rotation failed: " + e);
+        }
+        try {
+            out = open();
+        } catch (IOException e) {
+            System.out.println("⚠️ Event log: cannot reopen " + dir + ", writing to stdout: " + e);
+            out = System.out;
+        }
+    }
+
+    /** Writes out what is queued and stops the writer. */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
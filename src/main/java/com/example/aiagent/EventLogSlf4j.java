@@ -0,0 +1,113 @@
+package com.example.aiagent;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.helpers.LegacyAbstractLogger;
+import org.slf4j.helpers.MessageFormatter;
+import org.slf4j.helpers.NOPMDCAdapter;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SLF4J provider that hands library logging (Jetty's, mostly) to the {@link EventLog} as "log" events, so it
+ * ends up next to the app's own events instead of in SLF4J's no-op fallback. Messages below EVENT_LOG_LEVEL
+ * (default INFO) are dropped before they are formatted. Registered in META-INF/services.
+ */
+public final class EventLogSlf4j implements SLF4JServiceProvider {
+
+    private ILoggerFactory loggers;
+    private final IMarkerFactory markers = new BasicMarkerFactory();
+    private final MDCAdapter mdc = new NOPMDCAdapter();
+
+    @Override
+    public void initialize() {
+        int threshold = threshold(Env.get("EVENT_LOG_LEVEL", "INFO"));
+        Map<String, Logger> byName = new ConcurrentHashMap<>();
+        loggers = name -> byName.computeIfAbsent(name, n -> new EventLogger(n, threshold));
+    }
+
+    /** A typo must not break SLF4J's initialisation, and with it Jetty's startup. */
+    private static int threshold(String level) {
+        try {
+            return Level.valueOf(level.trim().toUpperCase(Locale.ROOT)).toInt();
+        } catch (IllegalArgumentException e) {
+            System.out.println("⚠️ Unknown EVENT_LOG_LEVEL " + level + ", using INFO");
+            return Level.INFO.toInt();
+        }
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggers;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markers;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdc;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return "2.0.99";
+    }
+
+    private static final class EventLogger extends LegacyAbstractLogger {
+
+        private final int threshold;
+
+        EventLogger(String name, int threshold) {
+            this.name = name;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return threshold <= Level.TRACE.toInt();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return threshold <= Level.DEBUG.toInt();
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return threshold <= Level.INFO.toInt();
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return threshold <= Level.WARN.toInt();
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return threshold <= Level.ERROR.toInt();
+        }
+
+        @Override
+        protected String getFullyQualifiedCallerName() {
+            return null;
+        }
+
+        @Override
+        protected void handleNormalizedLoggingCall(Level level, Marker marker, String pattern, Object[] args,
+                Throwable error) {
+            EventLog.get().publish(EventLog.Type.LOG, EventLog.currentRequest(), level.toInt(), -1, name,
+                    MessageFormatter.basicArrayFormat(pattern, args), error);
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.example.aiagent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the city a weather question is about, offline, so the weather lookup can go by coordinates instead
+ * of sending whatever text is left of the message to the weather API.
+ *
+ * Every name and alternate name of every place is lower-cased, stripped of accents and stored in one trie.
+ * The trie is flattened into primitive arrays in breadth-first order, which puts the children of a node next
+ * to each other; places are arrays too, indexed by place number. A message is matched in three passes, each
+ * only if the one before found nothing:
+ * <ol>
+ * <li>any run of words that is a whole name, longest run first ("new delhi" before "delhi");</li>
+ * <li>a word or two within one or two typos of a name, first letter right ("banglore", "hyderbad");</li>
+ * <li>a word that starts a name ("thiruvanan"), taking the largest place with such a name.</li>
+ * </ol>
+ * Where places share a name, the larger one wins. The bundled cities.tsv covers Indian cities and large
+ * cities elsewhere; GAZETTEER_FILE points at a GeoNames dump (cities15000.txt, say) to use instead.
+ */
+final class Gazetteer {
+
+    private static final int MIN_NAME = 3;
+    private static final int MIN_FUZZY = 5;
+    private static final int TWO_EDITS = 9;
+    private static final Set<String> STOP_WORDS = Set.of("what", "whats", "is", "the", "today", "todays",
+            "tomorrow", "weather", "temperature", "mausam", "forecast", "climate", "humidity", "rain", "in", "at",
+            "for", "of", "and", "please", "tell", "me", "check", "batao", "bata", "location", "my", "current",
+            "right", "now", "hey", "hi", "how", "will", "be", "it", "like", "outside", "there", "here", "city",
+            "kal", "aaj", "abhi", "ka", "ki", "ke", "kaisa", "kaisi", "hai", "hoga", "rahega", "mein", "ko",
+            "kya");
+
+    // Trie, one slot per node; the children of node n are nodes firstChild[n] until firstChild[n + 1]
+    private final byte[] label;
+    private final int[] firstChild;
+    // Place whose name ends at the node, and the largest place whose name runs through it, or -1
+    private final int[] place;
+    private final int[] largest;
+
+    // Places, one slot per place number
+    private final float[] latitude;
+    private final float[] longitude;
+    private final int[] population;
+    private final char[] country;
+    private final String names;
+    private final int[] nameStart;
+
+    private final int nameCount;
+
+    private static final class Bundled {
+        static final Gazetteer INSTANCE = load();
+    }
+
+    /** The gazetteer from GAZETTEER_FILE or the bundled city list, loaded on first use. */
+    static Gazetteer get() {
+        return Bundled.INSTANCE;
+    }
+
+    private static Gazetteer load() {
+        String file = Env.get("GAZETTEER_FILE");
+        Gazetteer gazetteer;
+        try (BufferedReader in = file != null ? Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)
+                : bundled()) {
+            gazetteer = read(in);
+        } catch (IOException e) {
+            System.out.println("⚠️ Gazetteer: cannot read " + (file != null ? file : "cities.tsv") + ": " + e);
+            gazetteer = new Gazetteer(List.of(), List.of());
+        }
+        System.out.println("✅ Gazetteer: " + gazetteer.size() + " places, " + gazetteer.nameCount + " names, "
+                + gazetteer.label.length + " trie nodes, " + gazetteer.indexBytes() / 1024 + " KB.");
+        return gazetteer;
+    }
+
+    private static BufferedReader bundled() throws IOException {
+        InputStream in = Gazetteer.class.getResourceAsStream("/cities.tsv");
+        if (in == null)
+            throw new IOException("not on the classpath");
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    // ---------- LOADING ----------
+    private record Place(String name, float latitude, float longitude, String country, int population) {
+    }
+
+    private record Name(String key, int place) {
+    }
+
+    /**
+     * Reads the GeoNames cities layout: tab-separated, with name, asciiname, alternatenames (comma-separated),
+     * latitude, longitude, country code and population in columns 1, 2, 3, 4, 5, 8 and 14. Lines starting
+     * with # and lines that do not parse are skipped.
+     */
+    static Gazetteer read(BufferedReader in) throws IOException {
+        List<Place> places = new ArrayList<>();
+        List<Name> keys = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] cols = line.split("\t", -1);
+            if (cols.length < 15)
+                continue;
+            Place p;
+            try {
+                p = new Place(cols[1], Float.parseFloat(cols[4]), Float.parseFloat(cols[5]), cols[8],
+                        cols[14].isEmpty() ? 0 : Integer.parseInt(cols[14]));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            int id = places.size();
+            places.add(p);
+            addKey(keys, cols[1], id);
+            addKey(keys, cols[2], id);
+            for (String alternate : cols[3].split(","))
+                addKey(keys, alternate, id);
+        }
+        return new Gazetteer(places, keys);
+    }
+
+    private static void addKey(List<Name> keys, String name, int place) {
+        String key = normalize(name);
+        if (key.length() >= MIN_NAME)
+            keys.add(new Name(key, place));
+    }
+
+    /** Lower-case a-z words separated by single spaces: accents dropped, anything else a word break. */
+    static String normalize(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                text = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            if (c >= 'a' && c <= 'z') {
+                sb.append(c);
+                space = false;
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && !space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        if (space && sb.length() > 0)
+            sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    private Gazetteer(List<Place> places, List<Name> keys) {
+        int n = places.size();
+        latitude = new float[n];
+        longitude = new float[n];
+        population = new int[n];
+        country = new char[n * 2];
+        nameStart = new int[n + 1];
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            Place p = places.get(i);
+            latitude[i] = p.latitude;
+            longitude[i] = p.longitude;
+            population[i] = p.population;
+            for (int c = 0; c < 2 && c < p.country.length(); c++)
+                country[i * 2 + c] = p.country.charAt(c);
+            nameStart[i] = all.length();
+            all.append(p.name);
+        }
+        nameStart[n] = all.length();
+        names = all.toString();
+        nameCount = keys.size();
+
+        // One node per character not shared with the previous key in sorted order
+        List<Name> sorted = new ArrayList<>(keys);
+        sorted.sort(Comparator.comparing(Name::key));
+        int nodes = 1;
+        for (int i = 0; i < sorted.size(); i++)
+            nodes += sorted.get(i).key.length() - (i == 0 ? 0 : commonPrefix(sorted.get(i - 1).key,
+                    sorted.get(i).key));
+
+        label = new byte[nodes];
+        firstChild = new int[nodes + 1];
+        place = new int[nodes];
+        largest = new int[nodes];
+        // Node n stands for the sorted keys lo[n] until hi[n], which all share its first depth[n] characters
+        int[] lo = new int[nodes];
+        int[] hi = new int[nodes];
+        int[] depth = new int[nodes];
+        hi[0] = sorted.size();
+        int next = 1;
+        for (int node = 0; node < nodes; node++) {
+            firstChild[node] = next;
+            place[node] = -1;
+            int i = lo[node], d = depth[node];
+            for (; i < hi[node] && sorted.get(i).key.length() == d; i++)
+                place[node] = larger(place[node], sorted.get(i).place);
+            while (i < hi[node]) {
+                char c = sorted.get(i).key.charAt(d);
+                int j = i;
+                while (j < hi[node] && sorted.get(j).key.charAt(d) == c)
+                    j++;
+                label[next] = (byte) c;
+                lo[next] = i;
+                hi[next] = j;
+                depth[next] = d + 1;
+                next++;
+                i = j;
+            }
+        }
+        firstChild[nodes] = next;
+
+        // Children come after their parent, so walking backwards sees every subtree finished
+        for (int node = nodes - 1; node >= 0; node--) {
+            int best = place[node];
+            for (int c = firstChild[node]; c < firstChild[node + 1]; c++)
+                best = larger(best, largest[c]);
+            largest[node] = best;
+        }
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+            i++;
+        return i;
+    }
+
+    private int larger(int a, int b) {
+        if (a < 0)
+            return b;
+        if (b < 0)
+            return a;
+        return population[b] > population[a] ? b : a;
+    }
+
+    // ---------- LOOKUP ----------
+    int size() {
+        return latitude.length;
+    }
+
+    String name(int place) {
+        return names.substring(nameStart[place], nameStart[place + 1]);
+    }
+
+    double latitude(int place) {
+        return latitude[place];
+    }
+
+    double longitude(int place) {
+        return longitude[place];
+    }
+
+    String country(int place) {
+        return new String(country, place * 2, 2);
+    }
+
+    /** Bytes held by the trie and place arrays. */
+    long indexBytes() {
+        return label.length + 4L * (firstChild.length + place.length + largest.length)
+                + 4L * (latitude.length + longitude.length + population.length + nameStart.length)
+                + 2L * (country.length + names.length());
+    }
+
+    /** The place named in the message, or -1. */
+    int find(String message) {
+        String text = normalize(message);
+        if (text.isEmpty() || place.length == 1)
+            return -1;
+        int[] starts = new int[text.length() / 2 + 1];
+        int[] ends = new int[starts.length];
+        int words = 0;
+        for (int i = 0; i < text.length(); i = ends[words++] + 1) {
+            starts[words] = i;
+            int end = text.indexOf(' ', i);
+            ends[words] = end < 0 ? text.length() : end;
+        }
+        boolean[] stop = new boolean[words];
+        for (int w = 0; w < words; w++)
+            stop[w] = STOP_WORDS.contains(text.substring(starts[w], ends[w]));
+
+        int found = exact(text, starts, ends, words, stop);
+        if (found < 0)
+            found = fuzzy(text, starts, ends, words, stop);
+        if (found < 0)
+            found = prefix(text, starts, ends, words, stop);
+        return found;
+    }
+
+    private int child(int node, char c) {
+        for (int n = firstChild[node]; n < firstChild[node + 1]; n++)
+            if (label[n] == c)
+                return n;
+        return -1;
+    }
+
+    private int walk(int node, String text, int from, int to) {
+        for (int i = from; i < to && node >= 0; i++)
+            node = child(node, text.charAt(i));
+        return node;
+    }
+
+    /** Longest run of words that is a name; a lone stop word does not count. */
+    private int exact(String text, int[] starts, int[] ends, int words, boolean[] stop) {
+        int best = -1, bestLength = 0;
+        for (int w = 0; w < words; w++) {
+            int node = 0;
+            for (int last = w; last < words && node >= 0; last++) {
+                node = walk(node, text, last == w ? starts[w] : ends[last - 1], ends[last]);
+                if (node < 0 || place[node] < 0 || (last == w && stop[w]))
+                    continue;
+                int length = ends[last] - starts[w];
+                if (length > bestLength || (length == bestLength && larger(best, place[node]) != best)) {
+                    best = place[node];
+                    bestLength = length;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Closest name to one word or two, by edits (a swap of neighbouring letters is one), then length. */
+    private int fuzzy(String text, int[] starts, int[] ends, int words, boolean[] stop) {
+        Match match = new Match();
+        for (int w = 0; w < words; w++) {
+            if (stop[w])
+                continue;
+            for (int last = w; last < words && last <= w + 1; last++) {
+                if (last > w && stop[last])
+                    break;
+                int length = ends[last] - starts[w];
+                if (length < MIN_FUZZY)
+                    continue;
+                char[] query = text.substring(starts[w], ends[last]).toCharArray();
+                int maxEdits = length >= TWO_EDITS ? 2 : 1;
+                int[][] rows = new int[query.length + maxEdits + 2][query.length + 1];
+                char[] path = new char[rows.length];
+                for (int i = 0; i <= query.length; i++)
+                    rows[0][i] = i;
+                match.length = length;
+                search(0, 0, query, maxEdits, rows, path, match);
+            }
+        }
+        return match.place;
+    }
+
+    private static final class Match {
+        int place = -1;
+        int edits;
+        int bestLength;
+        int length;
+    }
+
+    private void search(int node, int depth, char[] query, int maxEdits, int[][] rows, char[] path, Match match) {
+        if (depth + 1 >= rows.length)
+            return;
+        int[] prev = rows[depth];
+        int[] row = rows[depth + 1];
+        for (int n = firstChild[node]; n < firstChild[node + 1]; n++) {
+            char c = (char) label[n];
+            // Typos are rarely in the first letter, and holding it fixed skips most of the trie
+            if (depth == 0 && c != query[0])
+                continue;
+            path[depth] = c;
+            row[0] = depth + 1;
+            int min = row[0];
+            for (int i = 1; i <= query.length; i++) {
+                int cost = Math.min(Math.min(prev[i] + 1, row[i - 1] + 1),
+                        prev[i - 1] + (query[i - 1] == c ? 0 : 1));
+                if (i > 1 && depth > 0 && query[i - 1] == path[depth - 1] && query[i - 2] == c)
+                    cost = Math.min(cost, rows[depth - 1][i - 2] + 1);
+                row[i] = cost;
+                min = Math.min(min, cost);
+            }
+            int edits = row[query.length];
+            if (place[n] >= 0 && edits <= maxEdits && better(match, place[n], edits))
+                take(match, place[n], edits);
+            if (min <= maxEdits)
+                search(n, depth + 1, query, maxEdits, rows, path, match);
+        }
+    }
+
+    private boolean better(Match match, int candidate, int edits) {
+        if (match.place < 0 || edits != match.edits)
+            return match.place < 0 || edits < match.edits;
+        if (match.length != match.bestLength)
+            return match.length > match.bestLength;
+        return larger(match.place, candidate) != match.place;
+    }
+
+    private static void take(Match match, int place, int edits) {
+        match.place = place;
+        match.edits = edits;
+        match.bestLength = match.length;
+    }
+
+    /** Largest place with a name that starts with a whole word, longest word first. */
+    private int prefix(String text, int[] starts, int[] ends, int words, boolean[] stop) {
+        int best = -1, bestLength = 0;
+        for (int w = 0; w < words; w++) {
+            int length = ends[w] - starts[w];
+            if (stop[w] || length < MIN_FUZZY || length < bestLength)
+                continue;
+            int node = walk(0, text, starts[w], ends[w]);
+            if (node < 0 || largest[node] < 0)
+                continue;
+            if (length > bestLength || larger(best, largest[node]) != best) {
+                best = largest[node];
+                bestLength = length;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.aiagent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies a chat message in a single pass.
+ *
+ * All intent keywords are compiled into one Aho-Corasick automaton, so a message is lower-cased and
+ * scanned once no matter how many intents exist. Intents are tried in declaration order, which is the
+ * priority order of the old if/else chain. Adding an intent is one more enum constant.
+ */
+final class IntentRouter {
+
+    enum Intent {
+        NAVIGATION(false, "navigate", "guide"),
+        WEATHER(false, "weather", "mausam", "temperature"),
+        CURRENT_LOCATION(false, "location", "where am i"),
+        YOUTUBE(false, "video", "watch", "play", "paly", "song", "gana", "music", "youtube"),
+        DIRECT_SEARCH(false, "search"),
+        NEWS(false, "news"),
+        GOOGLE_QUESTION(true, "who", "what"),
+        CHAT(false);
+
+        /** Anchored keywords only count at the very start of the message. */
+        final boolean anchored;
+        final String[] keywords;
+
+        Intent(boolean anchored, String... keywords) {
+            this.anchored = anchored;
+            this.keywords = keywords;
+        }
+    }
+
+    private static final Intent[] INTENTS = Intent.values();
+    private static final int UNANCHORED = unanchoredMask();
+    private static final int ALPHABET = 128; // keywords are ASCII; anything else resets to the root
+
+    // Dense DFA: goto/failure transitions folded together, plus the intents matched on entering a state
+    private final int[] transitions;
+    private final int[] matches;
+    // Trie depth of each state, to tell whether an anchored keyword began at index 0
+    private final int[] depth;
+
+    private static final IntentRouter INSTANCE = new IntentRouter();
+
+    static IntentRouter get() {
+        return INSTANCE;
+    }
+
+    private IntentRouter() {
+        List<int[]> children = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        children.add(newRow());
+        outputs.add(0);
+        depths.add(0);
+
+        for (Intent intent : INTENTS) {
+            for (String keyword : intent.keywords) {
+                int state = 0;
+                for (char c : keyword.toCharArray()) {
+                    int next = children.get(state)[c];
+                    if (next < 0) {
+                        next = children.size();
+                        children.add(newRow());
+                        outputs.add(0);
+                        depths.add(depths.get(state) + 1);
+                        children.get(state)[c] = next;
+                    }
+                    state = next;
+                }
+                outputs.set(state, outputs.get(state) | (1 << intent.ordinal()));
+            }
+        }
+
+        int states = children.size();
+        transitions = new int[states * ALPHABET];
+        matches = new int[states];
+        depth = new int[states];
+        int[] fail = new int[states];
+        for (int s = 0; s < states; s++) {
+            matches[s] = outputs.get(s);
+            depth[s] = depths.get(s);
+        }
+
+        // Breadth-first so each state's failure link is final before its children need it
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = children.get(0)[c];
+            transitions[c] = Math.max(child, 0);
+            if (child > 0) {
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            // Anchored keywords are not inherited through failure links: they must start at index 0
+            matches[s] |= matches[fail[s]] & UNANCHORED;
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = children.get(s)[c];
+                if (child > 0) {
+                    fail[child] = transitions[fail[s] * ALPHABET + c];
+                    transitions[s * ALPHABET + c] = child;
+                    queue.add(child);
+                } else {
+                    transitions[s * ALPHABET + c] = transitions[fail[s] * ALPHABET + c];
+                }
+            }
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[ALPHABET];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int unanchoredMask() {
+        int mask = 0;
+        for (Intent intent : INTENTS)
+            if (!intent.anchored)
+                mask |= 1 << intent.ordinal();
+        return mask;
+    }
+
+    /** The highest-priority intent whose keyword appears in the message, or CHAT. */
+    Intent route(String message) {
+        int found = 0;
+        int state = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = Character.toLowerCase(message.charAt(i));
+            state = (c < ALPHABET) ? transitions[state * ALPHABET + c] : 0;
+            int m = matches[state];
+            if (m != 0) {
+                // An anchored hit only counts if the keyword started at the first character
+                found |= (depth[state] == i + 1) ? m : (m & UNANCHORED);
+            }
+        }
+        return found == 0 ? Intent.CHAT : INTENTS[Integer.numberOfTrailingZeros(found)];
+    }
+
+    // ---------- EXTRACTION (precompiled, used after routing) ----------
+    private static final Pattern NON_ALNUM = Pattern.compile("[^a-zA-Z0-9\\s]");
+    private static final Pattern CITY_STOP_WORDS = Pattern.compile(
+            "\\b(what|whats|is|the|today|todays|weather|temperature|mausam|in|at|for|please|tell|me|check|batao|location|my|current|right|now|hey|hi)\\b");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern YOUTUBE_WORDS = Pattern
+            .compile("(?i)video|watch|play|paly|dekho|chalao|song|gana|music|on youtube");
+    private static final Pattern YOUTUBE_REPLY_WORDS = Pattern.compile("(?i)play|song|video");
+    private static final Pattern SEARCH_WORDS = Pattern.compile("(?i)search for|search|google|on internet");
+
+    static String extractCity(String msg) {
+        String clean = msg.toLowerCase(Locale.ROOT);
+        clean = NON_ALNUM.matcher(clean).replaceAll("");
+        clean = CITY_STOP_WORDS.matcher(clean).replaceAll("");
+        clean = SPACES.matcher(clean.trim()).replaceAll(" ");
+        return clean.length() > 1 ? clean : null;
+    }
+
+    static String youTubeQuery(String msg) {
+        return YOUTUBE_WORDS.matcher(msg).replaceAll("").trim();
+    }
+
+    static String youTubeTitle(String msg) {
+        return YOUTUBE_REPLY_WORDS.matcher(msg).replaceAll("").trim();
+    }
+
+    static String searchQuery(String msg) {
+        return SEARCH_WORDS.matcher(msg).replaceAll("").trim();
+    }
+}
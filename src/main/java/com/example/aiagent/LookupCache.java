@@ -0,0 +1,132 @@
+package com.example.aiagent;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * TTL + LRU cache for upstream lookups (weather, news, geocoding, YouTube, search).
+ *
+ * Concurrent misses for the same key share one upstream call: the first caller runs the loader and
+ * everyone else gets the same future. Only successful results are stored; a loader signals "don't
+ * cache this" by completing exceptionally. Every instance registers itself so its counters can be
+ * read from {@link #all()}.
+ */
+class LookupCache<K, V> {
+
+    private static final List<LookupCache<?, ?>> registry = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder expirations = new LongAdder();
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    LookupCache(String name, long ttl, TimeUnit unit, int maxEntries) {
+        this.name = name;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= LookupCache.this.maxEntries)
+                    return false;
+                evictions.increment();
+                return true;
+            }
+        };
+        registry.add(this);
+    }
+
+    /** TTL from CACHE_TTL_<NAME>_SECONDS, size from CACHE_MAX_ENTRIES; both fall back to defaults. */
+    static <K, V> LookupCache<K, V> fromEnv(String name, long defaultTtlSeconds) {
+        long ttl = Long.parseLong(Env.get("CACHE_TTL_" + name.toUpperCase() + "_SECONDS",
+                String.valueOf(defaultTtlSeconds)));
+        int max = Integer.parseInt(Env.get("CACHE_MAX_ENTRIES", "10000"));
+        return new LookupCache<>(name, ttl, TimeUnit.SECONDS, max);
+    }
+
+    static List<LookupCache<?, ?>> all() {
+        return registry;
+    }
+
+    String name() {
+        return name;
+    }
+
+    CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        V cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return leader;
+        }
+        // Another caller may have filled the entry between our lookup and claiming the key
+        cached = lookup(key);
+        if (cached != null) {
+            inFlight.remove(key, mine);
+            hits.increment();
+            mine.complete(cached);
+            return mine;
+        }
+
+        misses.increment();
+        CompletableFuture<V> load;
+        try {
+            load = loader.apply(key);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, err) -> {
+            if (err == null && value != null)
+                put(key, value);
+            inFlight.remove(key, mine);
+            if (err != null)
+                mine.completeExceptionally(err);
+            else
+                mine.complete(value);
+        });
+        return mine;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized V lookup(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (System.nanoTime() - entry.expiresAt > 0) {
+            entries.remove(key);
+            expirations.increment();
+            return null;
+        }
+        return entry.value;
+    }
+
+    private synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+}
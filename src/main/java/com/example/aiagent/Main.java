@@ -1,28 +1,128 @@
 package com.example.aiagent;
 
+import jakarta.servlet.MultipartConfigElement;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ForwardedRequestCustomizer;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
 import org.eclipse.jetty.ee10.servlet.ServletHolder;
 import org.eclipse.jetty.ee10.servlet.SessionHandler;
-import org.eclipse.jetty.ee10.servlet.DefaultServlet;
+import org.eclipse.jetty.session.DefaultSessionIdManager;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
 
 public class Main {
     public static void main(String[] args) throws Exception {
-        Server server = new Server(8080);
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("jetty");
+        if (Env.flag("VIRTUAL_THREADS")) {
+            // Servlet code runs on virtual threads; the pool's platform threads are left for selectors
+            threadPool.setVirtualThreadsExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+
+        Server server = new Server(threadPool);
+        // HTTP/1.1 and cleartext HTTP/2 on the same port: h2c by prior knowledge or Upgrade, for proxies and
+        // clients that multiplex. Browsers only speak HTTP/2 over TLS, which the proxy in front terminates.
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        // Behind a proxy every request comes from the proxy's address, and all users would share one
+        // per-client rate limit. TRUSTED_PROXIES (comma-separated IPs) names the proxies whose Forwarded/
+        // X-Forwarded-* headers give the client address; they must overwrite X-Forwarded-For, not append to
+        // it. Anyone else's headers are ignored, so a client can't pick its own address and rate-limit
+        // bucket. Unset, as when the server runs directly, the socket address is used.
+        Set<InetAddress> trustedProxies = new HashSet<>();
+        for (String proxy : Env.get("TRUSTED_PROXIES", "").split(","))
+            if (!proxy.isBlank())
+                trustedProxies.add(InetAddress.getByName(proxy.strip()));
+        if (!trustedProxies.isEmpty()) {
+            ForwardedRequestCustomizer forwarded = new ForwardedRequestCustomizer();
+            httpConfig.addCustomizer((request, responseHeaders) ->
+                    request.getConnectionMetaData().getRemoteSocketAddress() instanceof InetSocketAddress peer
+                            && trustedProxies.contains(peer.getAddress())
+                            ? forwarded.customize(request, responseHeaders) : request);
+        }
+        ServerConnector connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig),
+                new HTTP2CServerConnectionFactory(httpConfig));
+        int port = Integer.parseInt(Env.get("PORT", "8080"));
+        connector.setPort(port);
+        server.addConnector(connector);
+
         ServletContextHandler context = new ServletContextHandler();
         context.setContextPath("/");
-        context.setSessionHandler(new SessionHandler());
-        server.setHandler(context);
+        SessionHandler sessionHandler = new SessionHandler();
+        ConversationStore conversations = ConversationStore.fromEnv();
+        sessionHandler.addEventListener(conversations);
+        if (conversations.isDurable()) {
+            // After a restart the browser still sends its old session id; keep it if the log knows it,
+            // so the conversation carries on instead of starting over under a fresh id
+            DefaultSessionIdManager sessionIds = new DefaultSessionIdManager(server) {
+                @Override
+                public boolean isIdInUse(String id) {
+                    return super.isIdInUse(id) || conversations.isKnown(id);
+                }
+            };
+            server.addBean(sessionIds, true);
+            sessionHandler.setSessionIdManager(sessionIds);
+            Runtime.getRuntime().addShutdownHook(new Thread(conversations::close));
+        }
+        context.setSessionHandler(sessionHandler);
+
+        // Compress the dynamic JSON replies. Static assets arrive precompressed from StaticAssetServlet, and
+        // the SSE stream must reach the client event by event rather than wait on a deflater.
+        GzipHandler gzip = new GzipHandler();
+        gzip.setIncludedMethods("GET", "POST");
+        gzip.setIncludedPaths("/chat", "/metrics", "/cache/stats");
+        gzip.setExcludedPaths("/chat/stream");
+        gzip.setMinGzipSize(256);
+        gzip.setHandler(context);
+        server.setHandler(gzip);
+
+        ServletHolder chatHolder = new ServletHolder(new ChatServlet(conversations));
+        chatHolder.setAsyncSupported(true);
+        // Image uploads as multipart: parts over 1 MiB spill to a temp file instead of the heap. The image
+        // limit itself is checked by ChatRequest so it can answer 413; this only caps the whole body.
+        chatHolder.getRegistration().setMultipartConfig(new MultipartConfigElement(
+                System.getProperty("java.io.tmpdir"), -1, ChatRequest.maxBodyBytes(ChatServlet.MAX_IMAGE_BYTES),
+                1 << 20));
+        context.addServlet(chatHolder, "/chat");
+        context.addServlet(chatHolder, "/chat/stream");
 
-        context.addServlet(new ServletHolder(new ChatServlet()), "/chat");
+        context.addServlet(new ServletHolder(new CacheStatsServlet()), "/cache/stats");
+        context.addServlet(new ServletHolder(new MetricsServlet()), "/metrics");
+        Metrics.gauge("aiagent_jetty_threads_busy", "Jetty pool threads running a task.", threadPool::getBusyThreads);
+        Metrics.gauge("aiagent_jetty_queue_size", "Jobs waiting for a Jetty pool thread.", threadPool::getQueueSize);
+        Metrics.gauge("aiagent_chat_sessions", "Conversations held in memory.", conversations::size);
+        if (conversations.isDurable())
+            Metrics.gauge("aiagent_chat_sessions_logged", "Conversations restorable from the log.",
+                    conversations::loggedSize);
+        EventLog events = EventLog.get();
+        Metrics.gauge("aiagent_event_log_pending", "Events queued for the event log writer.", events::pending);
+        Metrics.gauge("aiagent_event_log_dropped", "Events dropped since startup because the buffer was full.",
+                events::dropped);
 
-        ServletHolder staticHolder = new ServletHolder("default", DefaultServlet.class);
-        staticHolder.setInitParameter("resourceBase", "./frontend");
-        staticHolder.setInitParameter("dirAllowed", "true");
-        context.addServlet(staticHolder, "/");
+        context.addServlet(new ServletHolder("default", StaticAssetServlet.fromEnv()), "/");
 
-        System.out.println("AI Agent running on http://localhost:8080");
         server.start();
+        long readyMs = ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis()).orElse(-1L);
+        System.out.println("AI Agent running on http://localhost:" + port
+                + (Env.flag("VIRTUAL_THREADS") ? " (virtual threads)" : "") + ", ready in " + readyMs + " ms");
+        List<String> unconfigured = Arrays.stream(UpstreamApi.values()).filter(api -> !api.configured)
+                .map(api -> api.label + " (" + String.join(", ", api.missingKeys) + ")").toList();
+        if (!unconfigured.isEmpty())
+            System.out.println("⚠️ Not configured, answering with fallbacks: " + String.join(", ", unconfigured));
         server.join();
     }
-}
\ No newline at end of file
+}
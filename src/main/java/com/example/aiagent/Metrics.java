@@ -0,0 +1,346 @@
+package com.example.aiagent;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide counters, histograms and gauges, rendered by {@link MetricsServlet} in the Prometheus text
+ * format.
+ *
+ * Every series is fixed when the class loads: routes and upstream APIs are enums and status codes fold
+ * into classes, so recording is an array index plus an atomic add and never allocates. Label strings only
+ * exist while a scrape is being written.
+ */
+final class Metrics {
+
+    private static final IntentRouter.Intent[] INTENTS = IntentRouter.Intent.values();
+    /** Route index for image turns, which bypass the intent router. */
+    static final int VISION = INTENTS.length;
+    private static final int ROUTES = INTENTS.length + 1;
+    private static final String[] ROUTE_LABELS = routeLabels();
+    private static final UpstreamApi[] APIS = UpstreamApi.values();
+    private static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx", "none", "cancelled" };
+    /** Status passed for a call that was abandoned on purpose (a losing hedge), not failed. */
+    static final int CANCELLED = -1;
+    static final int CIRCUIT_OPEN = 0;
+    static final int BULKHEAD_FULL = 1;
+    static final int NOT_CONFIGURED = 2;
+    private static final String[] REJECTIONS = { "circuit_open", "bulkhead_full", "not_configured" };
+    private static final CostClass[] COST_CLASSES = CostClass.values();
+    static final int SHED_QUEUE_FULL = 0;
+    static final int SHED_QUEUE_TIMEOUT = 1;
+    private static final String[] SHED_REASONS = { "queue_full", "queue_timeout" };
+
+    // Per route: requests by outcome (0 = ok, 1 = error), end-to-end latency
+    private static final LongAdder[][] chatRequests = adders(ROUTES, 2);
+    private static final Histogram[] chatDuration = histograms(ROUTES);
+    private static final LongAdder chatInFlight = new LongAdder();
+    private static final Histogram chatRequestBytes = new Histogram();
+
+    // Per upstream API: calls by status class, latency, in flight and payload sizes
+    private static final LongAdder[][] upstreamCalls = adders(APIS.length, STATUS_CLASSES.length);
+    private static final Histogram[] upstreamDuration = histograms(APIS.length);
+    private static final LongAdder[] upstreamInFlight = adders(1, APIS.length)[0];
+    private static final Histogram[] upstreamRequestBytes = histograms(APIS.length);
+    private static final Histogram[] upstreamResponseBytes = histograms(APIS.length);
+    private static final LongAdder[][] upstreamRejections = adders(APIS.length, REJECTIONS.length);
+    private static final LongAdder[] upstreamHedges = adders(1, APIS.length)[0];
+    private static final BooleanSupplier[] circuitOpen = new BooleanSupplier[APIS.length];
+
+    // Admission: per cost class turns queued, shed and their queue wait; clients over their rate
+    private static final LongAdder[] admissionQueued = adders(1, COST_CLASSES.length)[0];
+    private static final LongAdder[][] admissionShed = adders(COST_CLASSES.length, SHED_REASONS.length);
+    private static final Histogram[] admissionWait = histograms(COST_CLASSES.length);
+    private static final LongAdder admissionRateLimited = new LongAdder();
+    private static final AdaptiveLimiter[] limiters = new AdaptiveLimiter[COST_CLASSES.length];
+
+    private record Gauge(String name, String help, DoubleSupplier value) {
+    }
+
+    private static final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    // ---------- RECORDING (hot path) ----------
+    static int route(IntentRouter.Intent intent) {
+        return intent.ordinal();
+    }
+
+    static void chatStarted(long requestBytes) {
+        chatInFlight.increment();
+        if (requestBytes >= 0)
+            chatRequestBytes.record(requestBytes);
+    }
+
+    static void chatFinished() {
+        chatInFlight.decrement();
+    }
+
+    static void chatCompleted(int route, long startNanos, boolean ok) {
+        chatRequests[route][ok ? 0 : 1].increment();
+        chatDuration[route].record(System.nanoTime() - startNanos);
+    }
+
+    static void upstreamStarted(UpstreamApi api, long requestBytes) {
+        upstreamInFlight[api.ordinal()].increment();
+        if (requestBytes >= 0)
+            upstreamRequestBytes[api.ordinal()].record(requestBytes);
+    }
+
+    /**
+     * status is the HTTP status, 0 when no response arrived, or {@link #CANCELLED}; responseBytes is -1
+     * when unknown.
+     */
+    static void upstreamCompleted(UpstreamApi api, long startNanos, int status, long responseBytes) {
+        int a = api.ordinal();
+        upstreamInFlight[a].decrement();
+        int statusClass = (status >= 100 && status < 600) ? status / 100 - 1 : (status == CANCELLED) ? 6 : 5;
+        upstreamCalls[a][statusClass].increment();
+        upstreamDuration[a].record(System.nanoTime() - startNanos);
+        if (responseBytes >= 0)
+            upstreamResponseBytes[a].record(responseBytes);
+    }
+
+    /**
+     * A call refused before reaching the network; reason is {@link #CIRCUIT_OPEN}, {@link #BULKHEAD_FULL} or
+     * {@link #NOT_CONFIGURED}.
+     */
+    static void upstreamRejected(UpstreamApi api, int reason) {
+        upstreamRejections[api.ordinal()][reason].increment();
+    }
+
+    static void upstreamHedged(UpstreamApi api) {
+        upstreamHedges[api.ordinal()].increment();
+    }
+
+    static void circuit(UpstreamApi api, BooleanSupplier open) {
+        circuitOpen[api.ordinal()] = open;
+    }
+
+    static void admissionQueued(CostClass cost) {
+        admissionQueued[cost.ordinal()].increment();
+    }
+
+    /** reason is {@link #SHED_QUEUE_FULL} or {@link #SHED_QUEUE_TIMEOUT}. */
+    static void admissionShed(CostClass cost, int reason) {
+        admissionShed[cost.ordinal()][reason].increment();
+    }
+
+    static void admissionWaited(CostClass cost, long queuedNanos) {
+        admissionWait[cost.ordinal()].record(System.nanoTime() - queuedNanos);
+    }
+
+    static void admissionRateLimited() {
+        admissionRateLimited.increment();
+    }
+
+    static void limiter(CostClass cost, AdaptiveLimiter limiter) {
+        limiters[cost.ordinal()] = limiter;
+    }
+
+    /** Registers a value sampled at scrape time, e.g. a pool's queue length. */
+    static void gauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    // ---------- EXPOSITION ----------
+    static void writePrometheus(StringBuilder out) {
+        header(out, "aiagent_chat_requests_total", "counter", "Chat turns by routed intent and outcome.");
+        for (int r = 0; r < ROUTES; r++) {
+            out.append("aiagent_chat_requests_total{intent=\"").append(routeLabel(r)).append("\",outcome=\"ok\"} ")
+                    .append(chatRequests[r][0].sum()).append('\n');
+            out.append("aiagent_chat_requests_total{intent=\"").append(routeLabel(r))
+                    .append("\",outcome=\"error\"} ").append(chatRequests[r][1].sum()).append('\n');
+        }
+        header(out, "aiagent_chat_request_duration_seconds", "summary", "End-to-end chat turn latency.");
+        for (int r = 0; r < ROUTES; r++)
+            summary(out, "aiagent_chat_request_duration_seconds", "intent=\"" + routeLabel(r) + "\"",
+                    chatDuration[r], 1e9);
+        header(out, "aiagent_chat_requests_in_flight", "gauge", "Chat turns accepted and not yet answered.");
+        out.append("aiagent_chat_requests_in_flight ").append(chatInFlight.sum()).append('\n');
+        header(out, "aiagent_chat_request_bytes", "summary", "Size of incoming chat request bodies.");
+        summary(out, "aiagent_chat_request_bytes", null, chatRequestBytes, 1);
+
+        header(out, "aiagent_upstream_requests_total", "counter", "Upstream API calls by status class.");
+        for (UpstreamApi api : APIS)
+            for (int s = 0; s < STATUS_CLASSES.length; s++)
+                out.append("aiagent_upstream_requests_total{api=\"").append(api.label).append("\",status=\"")
+                        .append(STATUS_CLASSES[s]).append("\"} ").append(upstreamCalls[api.ordinal()][s].sum())
+                        .append('\n');
+        header(out, "aiagent_upstream_request_duration_seconds", "summary", "Upstream API call latency.");
+        for (UpstreamApi api : APIS)
+            summary(out, "aiagent_upstream_request_duration_seconds", "api=\"" + api.label + "\"",
+                    upstreamDuration[api.ordinal()], 1e9);
+        header(out, "aiagent_upstream_requests_in_flight", "gauge", "Upstream API calls awaiting a response.");
+        for (UpstreamApi api : APIS)
+            out.append("aiagent_upstream_requests_in_flight{api=\"").append(api.label).append("\"} ")
+                    .append(upstreamInFlight[api.ordinal()].sum()).append('\n');
+        header(out, "aiagent_upstream_request_bytes", "summary", "Size of upstream request bodies.");
+        for (UpstreamApi api : APIS)
+            summary(out, "aiagent_upstream_request_bytes", "api=\"" + api.label + "\"",
+                    upstreamRequestBytes[api.ordinal()], 1);
+        header(out, "aiagent_upstream_response_bytes", "summary", "Size of upstream response bodies.");
+        for (UpstreamApi api : APIS)
+            summary(out, "aiagent_upstream_response_bytes", "api=\"" + api.label + "\"",
+                    upstreamResponseBytes[api.ordinal()], 1);
+
+        header(out, "aiagent_upstream_rejections_total", "counter", "Upstream calls refused without being sent.");
+        for (UpstreamApi api : APIS)
+            for (int r = 0; r < REJECTIONS.length; r++)
+                out.append("aiagent_upstream_rejections_total{api=\"").append(api.label).append("\",reason=\"")
+                        .append(REJECTIONS[r]).append("\"} ").append(upstreamRejections[api.ordinal()][r].sum())
+                        .append('\n');
+        header(out, "aiagent_upstream_hedges_total", "counter", "Duplicate requests sent to beat a slow reply.");
+        for (UpstreamApi api : APIS)
+            out.append("aiagent_upstream_hedges_total{api=\"").append(api.label).append("\"} ")
+                    .append(upstreamHedges[api.ordinal()].sum()).append('\n');
+        header(out, "aiagent_upstream_circuit_open", "gauge", "1 while calls to the API are being refused.");
+        for (UpstreamApi api : APIS)
+            if (circuitOpen[api.ordinal()] != null)
+                out.append("aiagent_upstream_circuit_open{api=\"").append(api.label).append("\"} ")
+                        .append(circuitOpen[api.ordinal()].getAsBoolean() ? 1 : 0).append('\n');
+
+        writeAdmission(out);
+        writeCaches(out);
+        writeReplyCaches(out);
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, "gauge", gauge.help);
+            out.append(gauge.name).append(' ').append(gauge.value.getAsDouble()).append('\n');
+        }
+    }
+
+    private static void writeAdmission(StringBuilder out) {
+        header(out, "aiagent_admission_queued_total", "counter", "Chat turns that had to wait for a slot.");
+        for (CostClass cost : COST_CLASSES)
+            out.append("aiagent_admission_queued_total{class=\"").append(cost.label).append("\"} ")
+                    .append(admissionQueued[cost.ordinal()].sum()).append('\n');
+        header(out, "aiagent_admission_shed_total", "counter", "Chat turns refused with 503 by cost class.");
+        for (CostClass cost : COST_CLASSES)
+            for (int r = 0; r < SHED_REASONS.length; r++)
+                out.append("aiagent_admission_shed_total{class=\"").append(cost.label).append("\",reason=\"")
+                        .append(SHED_REASONS[r]).append("\"} ").append(admissionShed[cost.ordinal()][r].sum())
+                        .append('\n');
+        header(out, "aiagent_admission_rate_limited_total", "counter", "Chat turns refused with 429.");
+        out.append("aiagent_admission_rate_limited_total ").append(admissionRateLimited.sum()).append('\n');
+        header(out, "aiagent_admission_queue_wait_seconds", "summary", "Time queued turns waited for a slot.");
+        for (CostClass cost : COST_CLASSES)
+            summary(out, "aiagent_admission_queue_wait_seconds", "class=\"" + cost.label + "\"",
+                    admissionWait[cost.ordinal()], 1e9);
+        header(out, "aiagent_admission_limit", "gauge", "Current adaptive concurrency limit.");
+        for (CostClass cost : COST_CLASSES)
+            if (limiters[cost.ordinal()] != null)
+                out.append("aiagent_admission_limit{class=\"").append(cost.label).append("\"} ")
+                        .append(limiters[cost.ordinal()].limit()).append('\n');
+        header(out, "aiagent_admission_in_flight", "gauge", "Admitted turns not yet answered.");
+        for (CostClass cost : COST_CLASSES)
+            if (limiters[cost.ordinal()] != null)
+                out.append("aiagent_admission_in_flight{class=\"").append(cost.label).append("\"} ")
+                        .append(limiters[cost.ordinal()].inFlight()).append('\n');
+        header(out, "aiagent_admission_queue_length", "gauge", "Turns waiting for a slot.");
+        for (CostClass cost : COST_CLASSES)
+            if (limiters[cost.ordinal()] != null)
+                out.append("aiagent_admission_queue_length{class=\"").append(cost.label).append("\"} ")
+                        .append(limiters[cost.ordinal()].queued()).append('\n');
+    }
+
+    private static void writeCaches(StringBuilder out) {
+        header(out, "aiagent_cache_entries", "gauge", "Entries held by each lookup cache.");
+        for (LookupCache<?, ?> cache : LookupCache.all())
+            out.append("aiagent_cache_entries{cache=\"").append(cache.name()).append("\"} ").append(cache.size())
+                    .append('\n');
+        cacheCounter(out, "hits", "Lookups answered from the cache.", c -> c.hits.sum());
+        cacheCounter(out, "misses", "Lookups that called the upstream.", c -> c.misses.sum());
+        cacheCounter(out, "coalesced", "Lookups that joined a call already in flight.", c -> c.coalesced.sum());
+        cacheCounter(out, "evictions", "Entries dropped to stay under the size limit.", c -> c.evictions.sum());
+        cacheCounter(out, "expirations", "Entries dropped after their TTL.", c -> c.expirations.sum());
+    }
+
+    private static void writeReplyCaches(StringBuilder out) {
+        header(out, "aiagent_reply_cache_entries", "gauge", "Replies held by each reply cache.");
+        for (ReplyCache cache : ReplyCache.all())
+            out.append("aiagent_reply_cache_entries{cache=\"").append(cache.name()).append("\"} ")
+                    .append(cache.size()).append('\n');
+        header(out, "aiagent_reply_cache_lookups_total", "counter",
+                "Reply cache lookups by result: exact or similar hit, miss, or skipped as context-dependent.");
+        for (ReplyCache cache : ReplyCache.all()) {
+            replyLookups(out, cache, "exact", cache.exactHits.sum());
+            replyLookups(out, cache, "similar", cache.similarHits.sum());
+            replyLookups(out, cache, "miss", cache.misses.sum());
+            replyLookups(out, cache, "skipped", cache.skipped.sum());
+        }
+        header(out, "aiagent_reply_cache_evictions_total", "counter", "Replies dropped to stay under the size limit.");
+        for (ReplyCache cache : ReplyCache.all())
+            out.append("aiagent_reply_cache_evictions_total{cache=\"").append(cache.name()).append("\"} ")
+                    .append(cache.evictions.sum()).append('\n');
+        header(out, "aiagent_reply_cache_expirations_total", "counter", "Replies dropped after their TTL.");
+        for (ReplyCache cache : ReplyCache.all())
+            out.append("aiagent_reply_cache_expirations_total{cache=\"").append(cache.name()).append("\"} ")
+                    .append(cache.expirations.sum()).append('\n');
+    }
+
+    private static void replyLookups(StringBuilder out, ReplyCache cache, String result, long count) {
+        out.append("aiagent_reply_cache_lookups_total{cache=\"").append(cache.name()).append("\",result=\"")
+                .append(result).append("\"} ").append(count).append('\n');
+    }
+
+    private interface CacheCount {
+        long of(LookupCache<?, ?> cache);
+    }
+
+    private static void cacheCounter(StringBuilder out, String what, String help, CacheCount count) {
+        String name = "aiagent_cache_" + what + "_total";
+        header(out, name, "counter", help);
+        for (LookupCache<?, ?> cache : LookupCache.all())
+            out.append(name).append("{cache=\"").append(cache.name()).append("\"} ").append(count.of(cache))
+                    .append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.95, 0.99 };
+
+    private static void summary(StringBuilder out, String name, String labels, Histogram h, double unit) {
+        String prefix = (labels == null) ? "" : labels + ",";
+        for (double q : QUANTILES)
+            out.append(name).append('{').append(prefix).append("quantile=\"").append(q).append("\"} ")
+                    .append(h.quantile(q) / unit).append('\n');
+        String suffix = (labels == null) ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(h.sum() / unit).append('\n');
+        out.append(name).append("_count").append(suffix).append(h.count()).append('\n');
+    }
+
+    static String routeLabel(int route) {
+        return ROUTE_LABELS[route];
+    }
+
+    private static String[] routeLabels() {
+        String[] labels = new String[ROUTES];
+        for (IntentRouter.Intent intent : INTENTS)
+            labels[intent.ordinal()] = intent.name().toLowerCase(Locale.ROOT);
+        labels[VISION] = "vision";
+        return labels;
+    }
+
+    private static LongAdder[][] adders(int rows, int columns) {
+        LongAdder[][] adders = new LongAdder[rows][columns];
+        for (LongAdder[] row : adders)
+            for (int c = 0; c < columns; c++)
+                row[c] = new LongAdder();
+        return adders;
+    }
+
+    private static Histogram[] histograms(int n) {
+        Histogram[] histograms = new Histogram[n];
+        for (int i = 0; i < n; i++)
+            histograms[i] = new Histogram();
+        return histograms;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.aiagent;
+
+import java.io.IOException;
+
+/** A request body, or the image inside it, is over the configured limit. Answered with 413. */
+class PayloadTooLargeException extends IOException {
+
+    PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.aiagent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Replies to questions we have already answered, without another LLM or search round-trip.
+ *
+ * A message is normalized (case, punctuation, [LANG:xx] tags, filler words, a few verb synonyms) and
+ * looked up by that exact key first. Failing that, a MinHash signature over its character 3-grams is
+ * bucketed with LSH banding; a candidate sharing a band is used only if the real 3-gram Jaccard
+ * similarity reaches the threshold and both messages carry the same numbers ("volume 10" is not
+ * "volume 20"). Replies that run a ///CMD/// are only served again for the same message up to case and
+ * whitespace: a message one word away, or one the normalization folds into the same key ("delete
+ * hello.py" and "delete hello_py"), may name a different file, folder or program. Messages that lean on
+ * earlier turns or on the clock ("do it again", "yes", "what time is it") are never cached. Entries are
+ * LRU-bounded and expire after a TTL.
+ */
+final class ReplyCache {
+
+    private static final List<ReplyCache> registry = new CopyOnWriteArrayList<>();
+
+    // 8 bands of 4 rows: pairs at Jaccard 0.8 share a band ~98% of the time, at 0.5 about 40%
+    private static final int BANDS = 8;
+    private static final int ROWS = 4;
+    private static final long[] SEEDS = new SplittableRandom(0x5eed).longs(BANDS * ROWS).toArray();
+
+    private static final String COMMAND_MARKER = "///CMD///";
+
+    private static final Pattern LANG_TAG = Pattern.compile("\\[LANG:[a-zA-Z0-9-]+\\]");
+    // Keep letters with their combining marks, so Devanagari words stay whole
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{M}\\p{N}]+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Set<String> STOP_WORDS = Set.of("a", "an", "the", "is", "are", "please", "pls", "plz",
+            "kindly", "can", "could", "would", "will", "you", "u", "hey", "hi", "just", "for", "me", "zara", "na",
+            "bhai", "yaar", "karo", "kar", "do", "dena", "de");
+    private static final Map<String, String> SYNONYMS = Map.of("empty", "clear", "clean", "clear", "launch", "open");
+    private static final Set<String> DEFAULT_CONTEXT_WORDS = Set.of("it", "its", "that", "this", "these", "those",
+            "them", "they", "he", "she", "him", "her", "his", "again", "more", "another", "also", "too", "same",
+            "else", "previous", "last", "earlier", "above", "before", "yes", "no", "yeah", "nope", "ok", "okay",
+            "continue", "why", "wo", "woh", "ye", "yeh", "isko", "usko", "phir", "aur", "now", "today", "tomorrow",
+            "yesterday", "time", "date", "current", "latest", "abhi", "aaj", "kal");
+
+    private final String name;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final double threshold;
+    private final Set<String> contextWords;
+    private final LinkedHashMap<String, Entry> entries;
+    // Band hash -> entries with that band; a message is a candidate if it shares any band
+    private final HashMap<Long, List<Entry>> buckets = new HashMap<>();
+
+    final LongAdder exactHits = new LongAdder();
+    final LongAdder similarHits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder expirations = new LongAdder();
+
+    /**
+     * A normalized, cacheable message: the exact key plus what the similarity search needs, and the
+     * message itself with only case and whitespace normalized, which is what a command reply must match.
+     */
+    record Key(String text, int[] shingles, long[] bands, String numbers, String verbatim) {
+    }
+
+    private record Entry(Key key, String reply, boolean command, long expiresAt) {
+    }
+
+    ReplyCache(String name, long ttl, TimeUnit unit, int maxEntries, double threshold, Set<String> contextWords) {
+        this.name = name;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+        this.threshold = threshold;
+        this.contextWords = contextWords;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= ReplyCache.this.maxEntries)
+                    return false;
+                unindex(eldest.getValue());
+                evictions.increment();
+                return true;
+            }
+        };
+        registry.add(this);
+    }
+
+    /**
+     * TTL from CACHE_TTL_<NAME>_SECONDS, size from REPLY_CACHE_MAX_ENTRIES (0 turns it off), similarity
+     * threshold from REPLY_CACHE_SIMILARITY, and the words that mark a turn as context-dependent from
+     * REPLY_CACHE_CONTEXT_WORDS (comma-separated, replaces the built-in list).
+     */
+    static ReplyCache fromEnv(String name, long defaultTtlSeconds) {
+        long ttl = Long.parseLong(Env.get("CACHE_TTL_" + name.toUpperCase() + "_SECONDS",
+                String.valueOf(defaultTtlSeconds)));
+        int max = Integer.parseInt(Env.get("REPLY_CACHE_MAX_ENTRIES", "2000"));
+        double threshold = Double.parseDouble(Env.get("REPLY_CACHE_SIMILARITY", "0.8"));
+        String words = Env.get("REPLY_CACHE_CONTEXT_WORDS");
+        Set<String> contextWords = (words == null) ? DEFAULT_CONTEXT_WORDS
+                : Set.of(words.toLowerCase(Locale.ROOT).trim().split("\\s*,\\s*"));
+        return new ReplyCache(name, ttl, TimeUnit.SECONDS, max, threshold, contextWords);
+    }
+
+    static List<ReplyCache> all() {
+        return registry;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /** The cache key for a message, or null if the turn must not be cached or answered from cache. */
+    Key key(String message) {
+        if (maxEntries <= 0 || message == null)
+            return null;
+        String[] words = NON_WORD.split(LANG_TAG.matcher(message).replaceAll(" ").toLowerCase(Locale.ROOT));
+        StringBuilder text = new StringBuilder();
+        StringBuilder numbers = new StringBuilder();
+        for (String word : words) {
+            if (contextWords.contains(word)) {
+                skipped.increment();
+                return null;
+            }
+            if (word.isEmpty() || STOP_WORDS.contains(word))
+                continue;
+            if (Character.isDigit(word.charAt(0)))
+                numbers.append(word).append(' ');
+            if (!text.isEmpty())
+                text.append(' ');
+            text.append(SYNONYMS.getOrDefault(word, word));
+        }
+        if (text.isEmpty()) {
+            skipped.increment();
+            return null;
+        }
+        int[] shingles = shingles(text);
+        return new Key(text.toString(), shingles, bands(shingles), numbers.toString(),
+                WHITESPACE.matcher(message.strip().toLowerCase(Locale.ROOT)).replaceAll(" "));
+    }
+
+    /** The cached reply for an exact or near-identical message, or null. */
+    synchronized String get(Key key) {
+        if (key == null)
+            return null;
+        Entry entry = entries.get(key.text);
+        if (entry != null && live(entry) && (!entry.command || entry.key.verbatim.equals(key.verbatim))) {
+            exactHits.increment();
+            return entry.reply;
+        }
+
+        Entry best = null;
+        double bestSimilarity = threshold;
+        Set<Entry> seen = new HashSet<>();
+        for (long band : key.bands) {
+            List<Entry> bucket = buckets.get(band);
+            if (bucket == null)
+                continue;
+            for (Entry candidate : bucket) {
+                if (!seen.add(candidate) || !candidate.key.numbers.equals(key.numbers))
+                    continue;
+                double similarity = jaccard(key.shingles, candidate.key.shingles);
+                if (similarity >= bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        // Re-read through the map so the match counts as recently used (and may turn out expired)
+        if (best != null && entries.get(best.key.text) == best && live(best)) {
+            similarHits.increment();
+            return best.reply;
+        }
+        misses.increment();
+        return null;
+    }
+
+    synchronized void put(Key key, String reply) {
+        if (key == null || reply == null || reply.isEmpty())
+            return;
+        boolean command = reply.contains(COMMAND_MARKER);
+        Entry entry = new Entry(key, reply, command, System.nanoTime() + ttlNanos);
+        Entry previous = entries.put(key.text, entry);
+        if (previous != null)
+            unindex(previous);
+        if (command)
+            return; // verbatim hits only, so keep it out of the similarity buckets
+        for (long band : key.bands)
+            buckets.computeIfAbsent(band, b -> new ArrayList<>(2)).add(entry);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean live(Entry entry) {
+        if (System.nanoTime() - entry.expiresAt <= 0)
+            return true;
+        entries.remove(entry.key.text);
+        unindex(entry);
+        expirations.increment();
+        return false;
+    }
+
+    private void unindex(Entry entry) {
+        for (long band : entry.key.bands) {
+            List<Entry> bucket = buckets.get(band);
+            if (bucket == null)
+                continue;
+            for (Iterator<Entry> it = bucket.iterator(); it.hasNext();)
+                if (it.next() == entry)
+                    it.remove();
+            if (bucket.isEmpty())
+                buckets.remove(band);
+        }
+    }
+
+    // ---------- SIMILARITY ----------
+
+    /** Sorted, distinct hashes of the character 3-grams of " text ". */
+    private static int[] shingles(CharSequence text) {
+        String padded = " " + text + " ";
+        int[] out = new int[Math.max(padded.length() - 2, 1)];
+        for (int i = 0; i + 2 < padded.length(); i++)
+            out[i] = (padded.charAt(i) * 31 + padded.charAt(i + 1)) * 31 + padded.charAt(i + 2);
+        Arrays.sort(out);
+        int n = 0;
+        for (int i = 0; i < out.length; i++)
+            if (i == 0 || out[i] != out[i - 1])
+                out[n++] = out[i];
+        return Arrays.copyOf(out, n);
+    }
+
+    /** MinHash signature folded into one hash per LSH band. */
+    private static long[] bands(int[] shingles) {
+        long[] bands = new long[BANDS];
+        for (int b = 0; b < BANDS; b++) {
+            long band = b;
+            for (int r = 0; r < ROWS; r++) {
+                long seed = SEEDS[b * ROWS + r];
+                long min = Long.MAX_VALUE;
+                for (int shingle : shingles)
+                    min = Math.min(min, mix(shingle ^ seed));
+                band = band * 0x100000001B3L + min;
+            }
+            bands[b] = mix(band);
+        }
+        return bands;
+    }
+
+    /** |a ∩ b| / |a ∪ b| of two sorted, distinct arrays. */
+    private static double jaccard(int[] a, int[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    /** MurmurHash3 64-bit finalizer. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93e185a53cdL;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.aiagent;
+
+/**
+ * Incrementally splits a streamed LLM reply into speakable sentences.
+ *
+ * Feed it the content deltas as they arrive. It strips a leading [LANG:xx] tag, and as soon as the
+ * reply turns out to be a ///CMD/// it stops emitting anything so the command is never spoken.
+ */
+class ReplyStreamParser {
+
+    interface Listener {
+        void onLang(String lang);
+
+        void onSentence(String sentence);
+    }
+
+    private static final String CMD_MARKER = "///CMD///";
+    private static final String LANG_PREFIX = "[LANG:";
+
+    private enum Mode {
+        PENDING, TEXT, COMMAND
+    }
+
+    private final Listener listener;
+    private final StringBuilder full = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private Mode mode = Mode.PENDING;
+    private String lang;
+
+    ReplyStreamParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    void accept(String delta) {
+        if (delta == null || delta.isEmpty())
+            return;
+        full.append(delta);
+        switch (mode) {
+            case PENDING -> decideMode();
+            case TEXT -> {
+                pending.append(delta);
+                emitSentences();
+            }
+            case COMMAND -> {
+                // The command is executed once the whole reply is in; nothing to speak.
+            }
+        }
+    }
+
+    /** Flushes whatever is left once the upstream stream has ended. */
+    void finish() {
+        if (mode == Mode.PENDING) {
+            String head = full.toString().trim();
+            if (head.startsWith(LANG_PREFIX) && head.indexOf(']') < 0)
+                head = "";
+            mode = head.contains(CMD_MARKER) ? Mode.COMMAND : Mode.TEXT;
+            if (mode == Mode.TEXT)
+                pending.append(stripLang(head));
+        }
+        if (mode == Mode.TEXT) {
+            emitSentences();
+            emit(pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    String fullText() {
+        return full.toString();
+    }
+
+    private void decideMode() {
+        String head = full.toString().stripLeading();
+        if (head.startsWith(LANG_PREFIX) || LANG_PREFIX.startsWith(head)) {
+            int close = head.indexOf(']');
+            if (close < 0)
+                return;
+            if (lang == null) {
+                lang = head.substring(LANG_PREFIX.length(), close).trim();
+                listener.onLang(lang);
+            }
+            head = head.substring(close + 1).stripLeading();
+        }
+        if (head.startsWith(CMD_MARKER)) {
+            mode = Mode.COMMAND;
+        } else if (!CMD_MARKER.startsWith(head)) {
+            mode = Mode.TEXT;
+            pending.append(head);
+            emitSentences();
+        }
+    }
+
+    private void emitSentences() {
+        int marker = pending.indexOf(CMD_MARKER);
+        if (marker >= 0) {
+            // Text followed by a command: speak the text, swallow the command.
+            String text = pending.substring(0, marker);
+            pending.setLength(0);
+            pending.append(text);
+            mode = Mode.COMMAND;
+        }
+        int start = 0;
+        for (int i = 0; i < pending.length(); i++) {
+            char c = pending.charAt(i);
+            boolean end = c == '\n'
+                    || ((c == '.' || c == '!' || c == '?' || c == '।') && i + 1 < pending.length()
+                            && Character.isWhitespace(pending.charAt(i + 1)));
+            if (end) {
+                emit(pending.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        pending.delete(0, start);
+        if (mode == Mode.COMMAND) {
+            emit(pending.toString());
+            pending.setLength(0);
+        }
+    }
+
+    private void emit(String sentence) {
+        String s = sentence.trim();
+        if (!s.isEmpty())
+            listener.onSentence(s);
+    }
+
+    private static String stripLang(String text) {
+        return text.replaceFirst("^\\[LANG:[a-zA-Z0-9-]+\\]\\s*", "");
+    }
+}
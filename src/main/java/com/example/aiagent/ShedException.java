@@ -0,0 +1,33 @@
+package com.example.aiagent;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * A /chat turn refused by {@link AdmissionControl}: 429 when the client is over its rate, 503 when the
+ * server is saturated. Either way the client is told when to come back.
+ */
+class ShedException extends RuntimeException {
+
+    private final int status;
+    private final long retryAfterSeconds;
+
+    ShedException(int status, long retryAfterSeconds, String message) {
+        super(message, null, false, false);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    int status() {
+        return status;
+    }
+
+    long retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /** The shed carried by a (possibly wrapped) failure, or null. */
+    static ShedException of(Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        return (cause instanceof ShedException s) ? s : null;
+    }
+}
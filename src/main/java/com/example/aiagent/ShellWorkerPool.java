@@ -0,0 +1,275 @@
+package com.example.aiagent;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs system commands on a few long-lived shell processes instead of starting an interpreter per
+ * command.
+ *
+ * Each worker runs a small read-eval loop. A command is framed on stdin as an id line, the command text,
+ * then an end line carrying the same id, so quotes and newlines pass through untouched and the shell
+ * needs no external decoder. When it ends the shell prints the end marker with the exit status on stdout
+ * and a matching marker on stderr. Both streams are drained all the time by their own threads, so
+ * a chatty stderr can never block the shell. A command that overruns its timeout gets its worker killed
+ * (with any children) and replaced; a worker whose shell died is replaced the same way. Commands never
+ * share state: a POSIX shell runs each in a subshell, PowerShell each in a fresh runspace.
+ *
+ * The interpreter comes from SHELL_INTERPRETER: bash/sh (or any POSIX shell), pwsh, or powershell.exe.
+ * It defaults to powershell.exe on Windows and bash elsewhere.
+ */
+final class ShellWorkerPool implements AutoCloseable {
+
+    /** Outcome of one command. exitCode is -1 when it timed out. */
+    record Result(int exitCode, String stdout, String stderr, boolean timedOut) {
+    }
+
+    private static final String MARKER = "__AIAGENT_END_";
+
+    // POSIX: each command runs in a subshell so cd/exit/variables can't leak into or kill the worker
+    private static final String POSIX_LOOP = """
+            while IFS= read -r __id; do
+              __cmd=
+              while IFS= read -r __line && [ "$__line" != "__MARKER__$__id" ]; do
+                __cmd="$__cmd$__line
+            "
+              done
+              ( eval "$__cmd" ) </dev/null
+              __rc=$?
+              printf '\\n%s%s %d\\n' '__MARKER__' "$__id" "$__rc"
+              printf '\\n%s%s\\n' '__MARKER__' "$__id" >&2
+            done
+            """.replace("__MARKER__", MARKER);
+
+    // PowerShell: each command runs in a fresh runspace, opened while the worker is idle, so Set-Location,
+    // variables, functions, $global: state and exit stay with that command. Environment variables and the
+    // process directory are shared by all runspaces, so they are put back afterwards.
+    private static final String POWERSHELL_LOOP = """
+            [Console]::InputEncoding = [Text.Encoding]::UTF8
+            [Console]::OutputEncoding = [Text.Encoding]::UTF8
+            $__iss = [Management.Automation.Runspaces.InitialSessionState]::CreateDefault2()
+            try { $__iss.ExecutionPolicy = 'Bypass' } catch { }
+            $__next = [RunspaceFactory]::CreateRunspace($__iss)
+            $__next.Open()
+            while ($true) {
+              $__id = [Console]::In.ReadLine()
+              if ($__id -eq $null) { break }
+              $__sb = [Text.StringBuilder]::new()
+              while ((($__line = [Console]::In.ReadLine()) -ne $null) -and ($__line -ne "__MARKER__$__id")) {
+                [void]$__sb.AppendLine($__line)
+              }
+              $__env = [Environment]::GetEnvironmentVariables()
+              $__dir = [Environment]::CurrentDirectory
+              $__ps = [PowerShell]::Create()
+              $__ps.Runspace = $__next
+              $__rc = 0
+              try {
+                foreach ($__o in $__ps.AddScript($__sb.ToString()).Invoke()) {
+                  [Console]::Out.WriteLine(($__o | Out-String).TrimEnd())
+                }
+                foreach ($__i in $__ps.Streams.Information) { [Console]::Out.WriteLine($__i) }
+                foreach ($__e in $__ps.Streams.Error) { [Console]::Error.WriteLine($__e); $__rc = 1 }
+                $__last = $__next.SessionStateProxy.GetVariable('LASTEXITCODE')
+                if ($__last) { $__rc = $__last }
+              } catch { [Console]::Error.WriteLine($_); $__rc = 1 }
+              finally {
+                $__ps.Dispose()
+                $__next.Dispose()
+                foreach ($__k in @([Environment]::GetEnvironmentVariables().Keys)) {
+                  if (-not $__env.Contains($__k)) { [Environment]::SetEnvironmentVariable($__k, $null) }
+                }
+                foreach ($__k in $__env.Keys) { [Environment]::SetEnvironmentVariable($__k, $__env[$__k]) }
+                [Environment]::CurrentDirectory = $__dir
+              }
+              [Console]::Out.WriteLine(); [Console]::Out.WriteLine("__MARKER__$__id $__rc"); [Console]::Out.Flush()
+              [Console]::Error.WriteLine(); [Console]::Error.WriteLine("__MARKER__$__id"); [Console]::Error.Flush()
+              $__next = [RunspaceFactory]::CreateRunspace($__iss)
+              $__next.Open()
+            }
+            """.replace("__MARKER__", MARKER);
+
+    private final String interpreter;
+    private final long timeoutMs;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+    private final AtomicLong ids = new AtomicLong();
+    private volatile boolean closed;
+
+    ShellWorkerPool(String interpreter, int size, long timeoutMs) {
+        this.interpreter = interpreter;
+        this.timeoutMs = timeoutMs;
+        this.permits = new Semaphore(size, true);
+    }
+
+    /** SHELL_INTERPRETER, SHELL_POOL_SIZE (default 2) and SHELL_COMMAND_TIMEOUT_MS (default 10000). */
+    static ShellWorkerPool fromEnv() {
+        boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+        return new ShellWorkerPool(Env.get("SHELL_INTERPRETER", windows ? "powershell.exe" : "bash"),
+                Integer.parseInt(Env.get("SHELL_POOL_SIZE", "2")),
+                Long.parseLong(Env.get("SHELL_COMMAND_TIMEOUT_MS", "10000")));
+    }
+
+    /**
+     * Runs the command on the next free worker, starting one if the pool isn't full yet. Blocks until the
+     * command finishes or times out; waiting for a free worker counts against the same timeout.
+     */
+    Result run(String command) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS))
+            return new Result(-1, "", "All shell workers are busy", true);
+        Worker worker = null;
+        try {
+            worker = idle.pollFirst();
+            if (worker == null)
+                worker = new Worker(start());
+            Result result = worker.execute(ids.incrementAndGet(), command,
+                    Math.max(0, deadline - System.nanoTime()));
+            if (result.timedOut() || !worker.isAlive()) {
+                worker.destroy();
+            } else if (closed) {
+                worker.destroy();
+            } else {
+                idle.addFirst(worker); // most recently used first, so spare workers stay cold
+            }
+            worker = null;
+            return result;
+        } finally {
+            if (worker != null)
+                worker.destroy();
+            permits.release();
+        }
+    }
+
+    private Process start() throws IOException {
+        String exe = interpreter.toLowerCase(Locale.ROOT);
+        ProcessBuilder pb;
+        if (exe.contains("pwsh") || exe.contains("powershell")) {
+            String encoded = Base64.getEncoder().encodeToString(POWERSHELL_LOOP.getBytes(StandardCharsets.UTF_16LE));
+            pb = new ProcessBuilder(interpreter, "-NoLogo", "-NoProfile", "-NonInteractive", "-ExecutionPolicy",
+                    "Bypass", "-EncodedCommand", encoded);
+        } else {
+            pb = new ProcessBuilder(interpreter, "-c", POSIX_LOOP);
+        }
+        return pb.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Worker worker;
+        while ((worker = idle.pollFirst()) != null)
+            worker.destroy();
+    }
+
+    /** One shell process, running one command at a time. */
+    private static final class Worker {
+        private final Process process;
+        private final Writer stdin;
+        private volatile Pending current;
+
+        Worker(Process process) {
+            this.process = process;
+            this.stdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            drain(process.getInputStream(), false);
+            drain(process.getErrorStream(), true);
+        }
+
+        private static final class Pending {
+            final String marker;
+            final StringBuilder out = new StringBuilder();
+            final StringBuilder err = new StringBuilder();
+            final CompletableFuture<Integer> exit = new CompletableFuture<>();
+            final CompletableFuture<Void> errDone = new CompletableFuture<>();
+
+            Pending(long id) {
+                this.marker = MARKER + id;
+            }
+        }
+
+        Result execute(long id, String command, long timeoutNanos) throws IOException, InterruptedException {
+            Pending pending = new Pending(id);
+            current = pending;
+            stdin.write(id + "\n" + command + "\n" + pending.marker + "\n");
+            stdin.flush();
+            long deadline = System.nanoTime() + timeoutNanos;
+            try {
+                int exit = pending.exit.get(timeoutNanos, TimeUnit.NANOSECONDS);
+                pending.errDone.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                synchronized (pending) {
+                    return new Result(exit, pending.out.toString().trim(), pending.err.toString().trim(), false);
+                }
+            } catch (TimeoutException e) {
+                synchronized (pending) {
+                    return new Result(-1, pending.out.toString().trim(), pending.err.toString().trim(), true);
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Shell worker exited", e.getCause());
+            } finally {
+                current = null;
+            }
+        }
+
+        private void drain(InputStream stream, boolean stderr) {
+            Thread.ofPlatform().daemon().name("shell-" + process.pid() + (stderr ? "-err" : "-out")).start(() -> {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Pending pending = current;
+                        if (pending == null)
+                            continue;
+                        if (line.startsWith(pending.marker)) {
+                            if (stderr)
+                                pending.errDone.complete(null);
+                            else
+                                pending.exit.complete(exitCode(line.substring(pending.marker.length()).trim()));
+                            continue;
+                        }
+                        synchronized (pending) {
+                            (stderr ? pending.err : pending.out).append(line).append('\n');
+                        }
+                    }
+                } catch (IOException e) {
+                    // Stream closed: the worker is being destroyed
+                }
+                Pending pending = current;
+                if (pending != null) {
+                    IOException gone = new IOException("Shell exited");
+                    pending.exit.completeExceptionally(gone);
+                    pending.errDone.completeExceptionally(gone);
+                }
+            });
+        }
+
+        private static int exitCode(String s) {
+            try {
+                return Integer.parseInt(s);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        void destroy() {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+    }
+}
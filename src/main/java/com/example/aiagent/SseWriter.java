@@ -0,0 +1,26 @@
+package com.example.aiagent;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Writes Server-Sent Events to a servlet response. Every event is flushed straight away so the
+ * browser can act on it (e.g. start speaking) before the rest of the reply exists.
+ */
+class SseWriter {
+
+    private final PrintWriter out;
+
+    SseWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    /** One event; data is a single line of JSON. */
+    synchronized void event(String name, String data) throws IOException {
+        out.write("event: " + name + "\n");
+        out.write("data: " + data + "\n\n");
+        out.flush();
+        if (out.checkError())
+            throw new IOException("Client disconnected");
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.aiagent;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves the frontend from memory. Each file is read once at startup together with a strong ETag and, for
+ * text types, a gzip copy made at the best compression level. A .gz or .br file built next to an asset (by
+ * zopfli or brotli at build time) is served in its place to clients that accept it.
+ *
+ * Fingerprinted names such as app.3f9a2c1b.js never change content, so they are cached for a year as
+ * immutable. Everything else, index.html included, is revalidated on each load, which costs a 304 without a
+ * body. STATIC_RELOAD=true re-reads a file whose modification time has changed, for frontend work on a
+ * running server.
+ */
+public class StaticAssetServlet extends HttpServlet {
+
+    private static final Pattern FINGERPRINTED = Pattern.compile(".*\\.[0-9a-f]{8,}\\.[^./]+");
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE = "no-cache";
+    private static final int MIN_COMPRESS_BYTES = 256;
+
+    private final Path root;
+    private final boolean reload;
+    private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+    private record Asset(String contentType, String cacheControl, String etag, long modified,
+                         byte[] identity, byte[] gzip, byte[] brotli) {
+        boolean encoded() {
+            return gzip != null || brotli != null;
+        }
+    }
+
+    StaticAssetServlet(Path root, boolean reload) {
+        this.root = root.toAbsolutePath().normalize();
+        this.reload = reload;
+    }
+
+    static StaticAssetServlet fromEnv() {
+        return new StaticAssetServlet(Paths.get(Env.get("STATIC_DIR", "./frontend")), Env.flag("STATIC_RELOAD"));
+    }
+
+    @Override
+    public void init() {
+        long identity = 0;
+        long gzip = 0;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                if (isSibling(file))
+                    continue;
+                Asset asset = load(file);
+                assets.put(pathOf(file), asset);
+                identity += asset.identity.length;
+                gzip += asset.gzip != null ? asset.gzip.length : asset.identity.length;
+            }
+        } catch (IOException e) {
+            System.out.println("⚠️ Static assets: cannot read " + root + ": " + e);
+        }
+        System.out.println("✅ Static assets: " + assets.size() + " files, " + identity / 1024 + " KB, "
+                + gzip / 1024 + " KB gzipped.");
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String path = req.getPathInfo() == null ? req.getServletPath() : req.getServletPath() + req.getPathInfo();
+        if (path.isEmpty() || path.endsWith("/"))
+            path += "index.html";
+        Asset asset = find(path);
+        if (asset == null) {
+            if (find(path + "/index.html") != null) {
+                resp.sendRedirect(req.getContextPath() + path + "/");
+                return;
+            }
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String accept = req.getHeader("Accept-Encoding");
+        byte[] body = asset.identity;
+        String coding = null;
+        if (asset.brotli != null && accepts(accept, "br")) {
+            body = asset.brotli;
+            coding = "br";
+        } else if (asset.gzip != null && accepts(accept, "gzip")) {
+            body = asset.gzip;
+            coding = "gzip";
+        }
+        // Each encoding is a different byte sequence, so each gets its own strong tag
+        String etag = "\"" + asset.etag + (coding == null ? "" : "-" + coding) + "\"";
+
+        if (asset.encoded())
+            resp.setHeader("Vary", "Accept-Encoding");
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Cache-Control", asset.cacheControl);
+        if (notModified(req.getHeader("If-None-Match"), asset.etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        resp.setContentType(asset.contentType);
+        resp.setDateHeader("Last-Modified", asset.modified);
+        if (coding != null)
+            resp.setHeader("Content-Encoding", coding);
+        resp.setContentLength(body.length);
+        resp.getOutputStream().write(body);
+    }
+
+    private Asset find(String path) throws IOException {
+        Asset asset = assets.get(path);
+        if (!reload)
+            return asset;
+        Path file = root.resolve(path.substring(1)).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file) || isSibling(file)) {
+            assets.remove(path);
+            return null;
+        }
+        if (asset == null || Files.getLastModifiedTime(file).toMillis() != asset.modified) {
+            asset = load(file);
+            assets.put(path, asset);
+        }
+        return asset;
+    }
+
+    private Asset load(Path file) throws IOException {
+        byte[] identity = Files.readAllBytes(file);
+        String name = file.getFileName().toString();
+        String type = getServletContext().getMimeType(name);
+        if (type == null)
+            type = "application/octet-stream";
+        boolean text = isText(type);
+        if (text && (type.startsWith("text/") || type.endsWith("javascript") || type.endsWith("json")))
+            type += ";charset=utf-8";
+
+        byte[] gzip = sibling(file, ".gz");
+        if (gzip == null && text && identity.length >= MIN_COMPRESS_BYTES) {
+            gzip = gzip(identity);
+            // Not worth a Content-Encoding header for a few percent
+            if (gzip.length > identity.length * 0.9)
+                gzip = null;
+        }
+        return new Asset(type, FINGERPRINTED.matcher(name).matches() ? IMMUTABLE : REVALIDATE, etag(identity),
+                Files.getLastModifiedTime(file).toMillis(), identity, gzip, sibling(file, ".br"));
+    }
+
+    private String pathOf(Path file) {
+        return "/" + root.relativize(file).toString().replace('\\', '/');
+    }
+
+    /** A precompressed .gz or .br next to the file it was made from is not an asset of its own. */
+    private static boolean isSibling(Path file) {
+        String name = file.toString();
+        return (name.endsWith(".gz") || name.endsWith(".br"))
+                && Files.exists(Paths.get(name.substring(0, name.length() - 3)));
+    }
+
+    private static byte[] sibling(Path file, String suffix) throws IOException {
+        Path sibling = file.resolveSibling(file.getFileName() + suffix);
+        return Files.isRegularFile(sibling) ? Files.readAllBytes(sibling) : null;
+    }
+
+    private static boolean isText(String type) {
+        return type.startsWith("text/") || type.endsWith("javascript") || type.endsWith("json")
+                || type.endsWith("+xml") || type.endsWith("/xml");
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static String etag(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** If-None-Match uses weak comparison, and a tag for any encoding of the same bytes counts. */
+    private static boolean notModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*"))
+                return true;
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.length() < 2 || tag.charAt(0) != '"')
+                continue;
+            tag = tag.substring(1, tag.length() - 1);
+            if (tag.equals(etag) || tag.equals(etag + "-gzip") || tag.equals(etag + "-br"))
+                return true;
+        }
+        return false;
+    }
+
+    /** Whether Accept-Encoding lists the coding (or *) without q=0. */
+    static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null)
+            return false;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase(coding) && !name.equals("*"))
+                continue;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        if (Double.parseDouble(param.substring(2)) <= 0)
+                            return false;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.aiagent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The external APIs the assistant calls, with the limits {@link UpstreamClient} applies to each.
+ *
+ * Defaults can be overridden per API with UPSTREAM_<NAME>_TIMEOUT_MS and UPSTREAM_<NAME>_MAX_IN_FLIGHT.
+ * The timeout covers the whole call including the body, so for streamed chat it bounds the full reply.
+ *
+ * An API is configured when its keys are set, or when its base URL has been pointed elsewhere (a stub, or a
+ * proxy that adds the keys itself). Calls to an API that is not configured fail at once instead of going
+ * out with a missing key.
+ */
+enum UpstreamApi {
+    GROQ(60_000, 256, "GROQ_BASE_URL", "GROQ_API_KEY"),
+    GROQ_VISION(60_000, 32, "GROQ_BASE_URL", "GROQ_API_KEY"),
+    WEATHER(5_000, 64, "WEATHER_BASE_URL", "WEATHER_API_KEY"),
+    // Nominatim's usage policy asks for very few concurrent requests
+    GEOCODE(5_000, 4, "GEOCODE_BASE_URL"),
+    NEWS(5_000, 16, "GNEWS_BASE_URL", "GNEWS_API_KEY"),
+    YOUTUBE(5_000, 32, "GOOGLE_BASE_URL", "YOUTUBE_API_KEY"),
+    SEARCH(5_000, 32, "GOOGLE_BASE_URL", "GOOGLE_API_KEY", "SEARCH_ENGINE_ID");
+
+    final String label = name().toLowerCase(Locale.ROOT);
+    final long timeoutMs;
+    final int maxInFlight;
+    final boolean configured;
+    /** The keys this API needs that are not set, for the startup message. */
+    final List<String> missingKeys;
+
+    UpstreamApi(long defaultTimeoutMs, int defaultMaxInFlight, String baseUrlKey, String... keys) {
+        this.timeoutMs = Long.parseLong(Env.get("UPSTREAM_" + name() + "_TIMEOUT_MS",
+                String.valueOf(defaultTimeoutMs)));
+        this.maxInFlight = Integer.parseInt(Env.get("UPSTREAM_" + name() + "_MAX_IN_FLIGHT",
+                String.valueOf(defaultMaxInFlight)));
+        this.missingKeys = Arrays.stream(keys).filter(key -> Env.get(key, "").isBlank()).toList();
+        this.configured = missingKeys.isEmpty() || Env.get(baseUrlKey) != null || Env.get("UPSTREAM_BASE_URL") != null;
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.aiagent;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The one way out to upstream APIs. Every call gets, per {@link UpstreamApi}:
+ * <ul>
+ * <li>a deadline for the whole exchange, after which the request is cancelled;</li>
+ * <li>a bulkhead: a cap on calls in flight, beyond which new calls fail at once instead of queueing;</li>
+ * <li>a circuit breaker that stops calling an API that keeps failing and probes it again later;</li>
+ * <li>latency, status and size metrics;</li>
+ * <li>an upstream_call event in the {@link EventLog}, under the request id of the turn that made it.</li>
+ * </ul>
+ * Refused calls, including calls to an API that is not configured, fail with an {@link UpstreamException}
+ * of status 0, which callers already turn into their fallback reply. HTTPS hosts are spoken to over HTTP/2
+ * when they offer it; plain-HTTP hosts (local stubs) stay on HTTP/1.1 to avoid the h2c upgrade dance.
+ *
+ * Building the HttpClient loads the TLS stack and the trust store, a good part of startup. It is built on a
+ * background thread so the server can start listening meanwhile; calls made before it is ready are sent
+ * once it is, without holding the caller's thread.
+ */
+final class UpstreamClient {
+
+    private static final UpstreamApi[] APIS = UpstreamApi.values();
+    // Deadlines and hedge delays. Cancelled tasks leave the queue at once, so a finished call's request
+    // body (up to a whole image) isn't kept reachable until its timeout would have fired
+    private static final ScheduledThreadPoolExecutor TIMERS = timers();
+
+    private final CompletableFuture<HttpClient> http;
+    private final Semaphore[] bulkheads = new Semaphore[APIS.length];
+    private final CircuitBreaker[] breakers = new CircuitBreaker[APIS.length];
+    private final EventLog events = EventLog.get();
+
+    UpstreamClient(Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(Long.parseLong(Env.get("UPSTREAM_CONNECT_TIMEOUT_S", "10"))))
+                .executor(executor);
+        this.http = CompletableFuture.supplyAsync(builder::build, executor);
+        int failures = Integer.parseInt(Env.get("UPSTREAM_BREAKER_FAILURES", "5"));
+        long openMs = Long.parseLong(Env.get("UPSTREAM_BREAKER_OPEN_MS", "30000"));
+        for (UpstreamApi api : APIS) {
+            bulkheads[api.ordinal()] = new Semaphore(api.maxInFlight);
+            breakers[api.ordinal()] = new CircuitBreaker(failures, openMs);
+            Metrics.circuit(api, breakers[api.ordinal()]::isOpen);
+        }
+    }
+
+    CompletableFuture<HttpResponse<String>> get(UpstreamApi api, String url, String... headers) {
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(url));
+            if (headers.length > 0)
+                builder.headers(headers);
+            return send(api, builder.build(), HttpResponse.BodyHandlers.ofString());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    <T> CompletableFuture<HttpResponse<T>> send(UpstreamApi api, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler) {
+        // Completion runs on a client thread, so the request id is taken now
+        long requestId = EventLog.currentRequest();
+        if (!api.configured) {
+            Metrics.upstreamRejected(api, Metrics.NOT_CONFIGURED);
+            return rejected(api, requestId, new UpstreamException(0, api.label + " not configured"));
+        }
+        if (!http.isDone())
+            return whenBuilt(api, request, handler, requestId);
+        HttpClient client;
+        try {
+            client = http.join();
+        } catch (CompletionException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+        return send(api, client, request, handler, requestId);
+    }
+
+    /** Only calls in the first moments after startup find the client still being built. */
+    private <T> CompletableFuture<HttpResponse<T>> whenBuilt(UpstreamApi api, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler, long requestId) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        http.whenComplete((client, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            if (result.isDone()) // cancelled while waiting
+                return;
+            CompletableFuture<HttpResponse<T>> call = send(api, client, request, handler, requestId);
+            call.whenComplete((res, err) -> {
+                if (res != null)
+                    result.complete(res);
+                else
+                    result.completeExceptionally(err);
+            });
+            result.whenComplete((res, err) -> {
+                if (err instanceof CancellationException)
+                    call.cancel(true);
+            });
+        });
+        return result;
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(UpstreamApi api, HttpClient client, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler, long requestId) {
+        int a = api.ordinal();
+        CircuitBreaker breaker = breakers[a];
+        if (!breaker.tryAcquire()) {
+            Metrics.upstreamRejected(api, Metrics.CIRCUIT_OPEN);
+            return rejected(api, requestId, new UpstreamException(0, api.label + " circuit open"));
+        }
+        Semaphore bulkhead = bulkheads[a];
+        if (!bulkhead.tryAcquire()) {
+            breaker.onIgnored();
+            Metrics.upstreamRejected(api, Metrics.BULKHEAD_FULL);
+            return rejected(api, requestId, new UpstreamException(0, api.label + " bulkhead full"));
+        }
+
+        if ("http".equals(request.uri().getScheme()))
+            request = HttpRequest.newBuilder(request, (name, value) -> true).version(HttpClient.Version.HTTP_1_1)
+                    .build();
+        long start = System.nanoTime();
+        HttpRequest.BodyPublisher publisher = request.bodyPublisher().orElse(null);
+        Metrics.upstreamStarted(api, publisher == null ? -1 : publisher.contentLength());
+
+        CompletableFuture<HttpResponse<T>> call = client.sendAsync(request, handler);
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        // Deadline for the whole exchange; cancelling the client's future aborts the request
+        ScheduledFuture<?> deadline = TIMERS.schedule(() -> {
+            if (result.completeExceptionally(new HttpTimeoutException(api.label + " timed out after "
+                    + api.timeoutMs + " ms")))
+                call.cancel(true);
+        }, api.timeoutMs, TimeUnit.MILLISECONDS);
+        // Cancelling the result (e.g. a losing hedge) cancels the call too
+        result.whenComplete((res, e) -> {
+            if (e instanceof CancellationException)
+                call.cancel(true);
+        });
+        call.whenComplete((res, e) -> {
+            deadline.cancel(false);
+            bulkhead.release();
+            boolean timedOut = result.isCompletedExceptionally() && !result.isCancelled();
+            long took = System.nanoTime() - start;
+            if (res != null) {
+                Metrics.upstreamCompleted(api, start, res.statusCode(), responseBytes(res));
+                events.publish(EventLog.Type.UPSTREAM_CALL, requestId, res.statusCode(), took, api.label, null,
+                        null);
+                if (res.statusCode() >= 500 || res.statusCode() == 429)
+                    breaker.onFailure();
+                else
+                    breaker.onSuccess();
+                result.complete(res);
+            } else if (unwrap(e) instanceof CancellationException && !timedOut) {
+                Metrics.upstreamCompleted(api, start, Metrics.CANCELLED, -1);
+                events.publish(EventLog.Type.UPSTREAM_CALL, requestId, Metrics.CANCELLED, took, api.label, null,
+                        null);
+                breaker.onIgnored();
+            } else {
+                Metrics.upstreamCompleted(api, start, 0, -1);
+                events.publish(EventLog.Type.UPSTREAM_CALL, requestId, 0, took, api.label,
+                        timedOut ? "timed out" : null, timedOut ? null : unwrap(e));
+                breaker.onFailure();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends the request, and if no usable answer has arrived after hedgeAfterMs, sends it once more and
+     * takes whichever answers first; the other is cancelled. This trims the tail latency of slow upstream
+     * replicas at the cost of a few duplicate calls. Only for idempotent requests with a replayable body.
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendHedged(UpstreamApi api, HttpRequest request,
+            HttpResponse.BodyHandler<T> handler, long hedgeAfterMs) {
+        if (hedgeAfterMs <= 0)
+            return send(api, request, handler);
+
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        long requestId = EventLog.currentRequest();
+        CompletableFuture<HttpResponse<T>> primary = send(api, request, handler);
+        AtomicReference<CompletableFuture<HttpResponse<T>>> hedge = new AtomicReference<>();
+        primary.whenComplete((res, e) -> settle(result, pending, res, e));
+        ScheduledFuture<?> hedgeTimer = TIMERS.schedule(() -> {
+            if (result.isDone() || !pending.compareAndSet(1, 2))
+                return;
+            Metrics.upstreamHedged(api);
+            CompletableFuture<HttpResponse<T>> second = EventLog.withRequest(requestId,
+                    () -> send(api, request, handler));
+            hedge.set(second);
+            second.whenComplete((res, e) -> settle(result, pending, res, e));
+            if (result.isDone())
+                second.cancel(true);
+        }, hedgeAfterMs, TimeUnit.MILLISECONDS);
+        result.whenComplete((res, e) -> {
+            hedgeTimer.cancel(false);
+            primary.cancel(true);
+            CompletableFuture<HttpResponse<T>> second = hedge.get();
+            if (second != null)
+                second.cancel(true);
+        });
+        return result;
+    }
+
+    private static ScheduledThreadPoolExecutor timers() {
+        ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1,
+                r -> Thread.ofPlatform().daemon().name("upstream-timer").unstarted(r));
+        timers.setRemoveOnCancelPolicy(true);
+        return timers;
+    }
+
+    private <T> CompletableFuture<T> rejected(UpstreamApi api, long requestId, UpstreamException e) {
+        events.publish(EventLog.Type.UPSTREAM_CALL, requestId, 0, -1, api.label, null, e);
+        return CompletableFuture.failedFuture(e);
+    }
+
+    /** A server error only wins if nothing better can still arrive. */
+    private static <T> void settle(CompletableFuture<HttpResponse<T>> result, AtomicInteger pending,
+            HttpResponse<T> res, Throwable e) {
+        boolean usable = res != null && res.statusCode() < 500;
+        int left = pending.decrementAndGet();
+        if (usable || left == 0) {
+            if (res != null)
+                result.complete(res);
+            else
+                result.completeExceptionally(e);
+        }
+    }
+
+    /** Content-Length when the upstream sent one, else the UTF-8 size of a String body; -1 if unknown. */
+    private static long responseBytes(HttpResponse<?> res) {
+        long declared = res.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (declared >= 0)
+            return declared;
+        if (res.body() instanceof byte[] bytes)
+            return bytes.length;
+        if (!(res.body() instanceof String body))
+            return -1;
+        long bytes = body.length();
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c >= 0x800)
+                bytes += Character.isSurrogate(c) ? 1 : 2;  // a surrogate pair is 4 bytes for 2 chars
+            else if (c >= 0x80)
+                bytes++;
+        }
+        return bytes;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.aiagent;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * An upstream API answered, but not with something we can use (non-200 status or a missing field).
+ * Failing the future keeps the result out of {@link LookupCache}; callers turn it back into a reply.
+ */
+class UpstreamException extends RuntimeException {
+
+    private final int status;
+
+    UpstreamException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    int status() {
+        return status;
+    }
+
+    /** The upstream status carried by a (possibly wrapped) failure, or 0 if there was no response. */
+    static int statusOf(Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        return (cause instanceof UpstreamException u) ? u.status : 0;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds and reads the JSON exchanged with upstream APIs. Kept apart from ChatServlet so the
+ * benchmarks exercise exactly the code the server runs.
+ */
+final class UpstreamJson {
+
+    private UpstreamJson() {
+    }
+
+    // ---------- CHAT REQUEST (assembled from pre-encoded pieces) ----------
+    // Pieces are deliberately left open (the prefix ends inside the messages array), so no auto-closing
+    private static final JsonFactory PIECES = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_CONTENT).build();
+    private static final byte[] COMMA = { ',' };
+    private static final byte[] SUFFIX = ascii("]}");
+    private static final byte[] STREAM_SUFFIX = ascii("],\"stream\":true}");
+
+    /**
+     * Everything in a chat completion body before the history: model, temperature and the system
+     * message, ending inside the open messages array. Built once per model/prompt and shared.
+     */
+    static byte[] chatPrefix(String model, String systemPrompt) {
+        return encode(gen -> {
+            gen.writeStartObject();
+            gen.writeStringField("model", model);
+            gen.writeNumberField("temperature", 0.6);
+            gen.writeArrayFieldStart("messages");
+            writeMessage(gen, "system", systemPrompt);
+        });
+    }
+
+    /** One {"role":...,"content":...} object as UTF-8, the form history is kept in. */
+    static byte[] chatMessage(String role, String content) {
+        return encode(gen -> writeMessage(gen, role, content));
+    }
+
+    /**
+     * Request body for Groq chat completions as a list of buffers: the shared prefix, the history as
+     * stored, then the new user message. Nothing already encoded is copied.
+     */
+    static List<byte[]> chatRequest(byte[] prefix, List<byte[]> history, String userMessage, boolean stream) {
+        List<byte[]> parts = new ArrayList<>(2 * history.size() + 4);
+        parts.add(prefix);
+        for (byte[] message : history) {
+            parts.add(COMMA);
+            parts.add(message);
+        }
+        parts.add(COMMA);
+        parts.add(chatMessage("user", userMessage));
+        parts.add(stream ? STREAM_SUFFIX : SUFFIX);
+        return parts;
+    }
+
+    /** Sends the buffers as they are, with an exact Content-Length. */
+    static HttpRequest.BodyPublisher bodyPublisher(List<byte[]> parts) {
+        long length = 0;
+        for (byte[] part : parts)
+            length += part.length;
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(parts), length);
+    }
+
+    private interface Writes {
+        void to(JsonGenerator gen) throws IOException;
+    }
+
+    private static byte[] encode(Writes writes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator gen = PIECES.createGenerator(out)) {
+            writes.to(gen);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeMessage(JsonGenerator gen, String role, String content) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("role", role);
+        gen.writeStringField("content", content);
+        gen.writeEndObject();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final String IMAGE_MARKER = "@@IMAGE_BASE64@@";
+
+    /**
+     * Request body for a Groq vision completion, split where the image's base64 goes: the caller sends
+     * [0], streams the image, then sends [1].
+     */
+    static String[] visionRequest(ObjectMapper mapper, String model, String prompt, String mimeType)
+            throws JsonProcessingException {
+        String url = "data:" + mimeType + ";base64," + IMAGE_MARKER;
+        List<Map<String, Object>> content = List.of(Map.of("type", "text", "text", prompt),
+                Map.of("type", "image_url", "image_url", Map.of("url", url)));
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("model", model);
+        payload.put("messages", List.of(Map.of("role", "user", "content", content)));
+        payload.put("temperature", 0.6);
+        payload.put("max_completion_tokens", 1024);
+        String json = mapper.writeValueAsString(payload);
+        // The prompt precedes the image in the body, so the last marker is the real one
+        int at = json.lastIndexOf(IMAGE_MARKER);
+        return new String[] { json.substring(0, at), json.substring(at + IMAGE_MARKER.length()) };
+    }
+
+    /** choices[0].message.content of a chat completion. */
+    static String chatReply(JsonFactory json, String body) throws IOException {
+        String content = firstChoice(json, body, "message");
+        if (content == null)
+            throw new JsonParseException(null, "no choices[0].message in chat completion");
+        return content;
+    }
+
+    /** choices[0].delta.content of one streamed chunk; empty for chunks that carry no text. */
+    static String chatDelta(JsonFactory json, String chunk) throws IOException {
+        String content = firstChoice(json, chunk, "delta");
+        return content == null ? "" : content;
+    }
+
+    /**
+     * Walks straight to choices[0].&lt;part&gt;.content, skipping everything else without building a
+     * tree. Null if the path is absent; empty if content is null.
+     */
+    private static String firstChoice(JsonFactory json, String body, String part) throws IOException {
+        try (JsonParser p = json.createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT || !toField(p, "choices")
+                    || p.nextToken() != JsonToken.START_ARRAY || p.nextToken() != JsonToken.START_OBJECT
+                    || !toField(p, part) || p.nextToken() != JsonToken.START_OBJECT || !toField(p, "content"))
+                return null;
+            return p.nextToken() == JsonToken.VALUE_STRING ? p.getText() : "";
+        }
+    }
+
+    /** Advances to the named field of the current object, skipping its siblings; false if absent. */
+    private static boolean toField(JsonParser p, String name) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            if (name.equals(p.currentName()))
+                return true;
+            p.nextToken();
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    /** One-line spoken summary of an OpenWeatherMap current-weather response. */
+    static String weatherReport(ObjectMapper mapper, String body) throws JsonProcessingException {
+        return weatherReport(mapper, body, null);
+    }
+
+    /** The same, naming the place as given rather than as the response does, when place is not null. */
+    static String weatherReport(ObjectMapper mapper, String body, String place) throws JsonProcessingException {
+        JsonNode root = mapper.readTree(body);
+        return String.format("Weather in %s: %.1f°C, %s.", place != null ? place : root.path("name").asText(),
+                root.path("main").path("temp").asDouble(),
+                root.path("weather").get(0).path("description").asText());
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.aiagent;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An uploaded image held once, as raw bytes.
+ *
+ * Images arrive either as a base64 data URL inside the JSON body or as a multipart file part; both are
+ * decoded straight into a byte array sized to fit. On the way out the bytes are base64-encoded
+ * chunk by chunk while the HTTP client sends them, so no second full-size copy (String, Map, or
+ * serialized JSON) ever exists.
+ */
+final class VisionImage {
+
+    // Multiple of 3, so every chunk but the last encodes without padding
+    private static final int CHUNK = 48 * 1024;
+
+    // May be longer than the image: base64 decoding sizes it before padding is known
+    private final byte[] bytes;
+    private final int length;
+    private final String mimeType;
+
+    VisionImage(byte[] bytes, int length, String mimeType) {
+        this.bytes = bytes;
+        this.length = length;
+        this.mimeType = mimeType;
+    }
+
+    int length() {
+        return length;
+    }
+
+    String mimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Decodes the current string token of a JSON parser: a data URL, or bare base64. The parser hands its
+     * buffered text over segment by segment, so the image is never joined into one char[] or String.
+     */
+    static VisionImage fromJson(JsonParser parser, int maxBytes) throws IOException {
+        Base64Sink sink = new Base64Sink(parser.getTextLength(), maxBytes);
+        parser.getText(sink);
+        return sink.finish();
+    }
+
+    /** Writer that strips an optional data URL header and base64-decodes the rest as it arrives. */
+    private static final class Base64Sink extends Writer {
+        private static final int HEADER_MAX = 256;
+
+        private final int totalChars;
+        private final int maxBytes;
+        private final StringBuilder header = new StringBuilder();
+        private boolean inHeader = true;
+        private String mimeType = "image/jpeg";
+        private byte[] out;
+        private int outLength;
+        // Characters waiting to be decoded; a multiple of 4 so full buffers never split a quantum
+        private final byte[] pending = new byte[8192];
+        private int pendingLength;
+        private final byte[] decoded = new byte[pending.length / 4 * 3];
+
+        Base64Sink(int totalChars, int maxBytes) {
+            this.totalChars = totalChars;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) throws IOException {
+            int end = offset + length;
+            int i = offset;
+            while (inHeader && i < end) {
+                char c = chars[i++];
+                header.append(c);
+                if (c == ',' || header.length() == HEADER_MAX)
+                    endHeader();
+            }
+            for (; i < end; i++) {
+                pending[pendingLength++] = (byte) chars[i];
+                if (pendingLength == pending.length)
+                    flushPending(pending);
+            }
+        }
+
+        private void endHeader() throws IOException {
+            inHeader = false;
+            String text = header.toString();
+            int dataChars = totalChars;
+            if (text.startsWith("data:") && text.endsWith(",")) {
+                int semicolon = text.indexOf(';');
+                if (semicolon > 5)
+                    mimeType = text.substring(5, semicolon);
+                dataChars -= text.length();
+                text = "";
+            }
+            long estimate = (long) dataChars * 3 / 4;
+            if (estimate - 2 > maxBytes)
+                throw new PayloadTooLargeException("Image is larger than " + maxBytes + " bytes");
+            out = new byte[(int) estimate + 3];
+            // No data URL header after all: what was collected is image data
+            for (int i = 0; i < text.length(); i++)
+                pending[pendingLength++] = (byte) text.charAt(i);
+        }
+
+        private void flushPending(byte[] source) throws IOException {
+            try {
+                int n = Base64.getDecoder().decode(source, decoded);
+                if (outLength + n > out.length)
+                    throw new IOException("Invalid base64 image");
+                System.arraycopy(decoded, 0, out, outLength, n);
+                outLength += n;
+                pendingLength = 0;
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid base64 image", e);
+            }
+        }
+
+        VisionImage finish() throws IOException {
+            if (inHeader)
+                endHeader();
+            if (pendingLength > 0)
+                flushPending(Arrays.copyOf(pending, pendingLength));
+            if (outLength > maxBytes)
+                throw new PayloadTooLargeException("Image is larger than " + maxBytes + " bytes");
+            return new VisionImage(out, outLength, mimeType);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Reads an uploaded file part, failing as soon as it passes maxBytes. */
+    static VisionImage read(InputStream in, String mimeType, int maxBytes) throws IOException {
+        byte[] out = in.readNBytes(maxBytes + 1);
+        if (out.length > maxBytes)
+            throw new PayloadTooLargeException("Image is larger than " + maxBytes + " bytes");
+        return new VisionImage(out, out.length, (mimeType == null || mimeType.isEmpty()) ? "image/jpeg" : mimeType);
+    }
+
+    /** Hex SHA-256 of the image bytes, used to recognise the same photo sent again. */
+    String sha256() {
+        try {
+            return HexFormat.of().formatHex(digest(MessageDigest.getInstance("SHA-256")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] digest(MessageDigest md) {
+        md.update(bytes, 0, length);
+        return md.digest();
+    }
+
+    /**
+     * Refuses an image whose header declares more than maxPixels, before anything decodes it: a few KB of
+     * compressed data can expand to gigabytes of raster. Formats ImageIO can't read are left to the vision
+     * API, as {@link #fitWithin} leaves them.
+     */
+    void checkPixels(long maxPixels) throws BadRequestException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes, 0, length))) {
+            ImageReader reader = reader(in);
+            if (reader == null)
+                return;
+            try {
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels)
+                    throw new BadRequestException("Image has " + pixels + " pixels, more than " + maxPixels);
+            } finally {
+                reader.dispose();
+            }
+        } catch (BadRequestException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // Unreadable header: fitWithin can't decode it either
+        }
+    }
+
+    /**
+     * This image shrunk so neither side exceeds maxDimension and re-encoded as JPEG, or this image itself
+     * if it already fits, maxDimension is 0, or ImageIO can't decode the format. The decoder skips rows
+     * and columns down to at most twice the target size, so the full-size raster is never allocated.
+     */
+    VisionImage fitWithin(int maxDimension, float jpegQuality) {
+        if (maxDimension <= 0)
+            return this;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes, 0, length))) {
+            ImageReader reader = reader(in);
+            if (reader == null)
+                return this;
+            BufferedImage source;
+            try {
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                if (longest <= maxDimension)
+                    return this;
+                int step = longest / maxDimension;
+                ImageReadParam read = reader.getDefaultReadParam();
+                read.setSourceSubsampling(step, step, 0, 0);
+                source = reader.read(0, read);
+            } finally {
+                reader.dispose();
+            }
+            int longest = Math.max(source.getWidth(), source.getHeight());
+
+            double scale = (double) maxDimension / longest;
+            int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+            int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                // JPEG has no alpha: flatten transparent PNGs onto white rather than black
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(source, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4);
+            try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(scaled, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            byte[] jpeg = out.toByteArray();
+            return new VisionImage(jpeg, jpeg.length, "image/jpeg");
+        } catch (IOException | RuntimeException e) {
+            return this;
+        }
+    }
+
+    /** The first ImageIO reader for the stream's format, with the stream as its input; null if none. */
+    private static ImageReader reader(ImageInputStream in) {
+        if (in == null)
+            return null;
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext())
+            return null;
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    /** Length of the base64 encoding of the image, padding included. */
+    long base64Length() {
+        return 4L * ((length + 2) / 3);
+    }
+
+    /**
+     * Request body made of head, the image as base64, then tail. The base64 is produced one chunk at a
+     * time as the client pulls it, and the total length is known up front so no chunked encoding is used.
+     */
+    HttpRequest.BodyPublisher bodyPublisher(String head, String tail) {
+        byte[] before = head.getBytes(StandardCharsets.UTF_8);
+        byte[] after = tail.getBytes(StandardCharsets.UTF_8);
+        Iterable<byte[]> parts = () -> new Iterator<>() {
+            private int next = -1; // -1: head, then image offsets, then tail
+
+            @Override
+            public boolean hasNext() {
+                return next <= length;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (next < 0) {
+                    next = 0;
+                    return before;
+                }
+                if (next == length) {
+                    next++;
+                    return after;
+                }
+                int to = Math.min(next + CHUNK, length);
+                byte[] chunk = Base64.getEncoder().encode(ByteBuffer.wrap(bytes, next, to - next)).array();
+                next = to;
+                return chunk;
+            }
+        };
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(parts),
+                before.length + base64Length() + after.length);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.aiagent.tools;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fires LLM-bound /chat turns with a fixed number in flight and reports how many the server actually
+ * overlapped. Run the app against {@link StubUpstreamServer} so only the server's own concurrency limits
+ * show up.
+ *
+ * Usage: ConcurrencyLoadTest [baseUrl] [concurrency] [requests]
+ */
+public class ConcurrencyLoadTest {
+
+    private static final String BODY = "{\"message\":\"tell me a joke about computers\",\"lang\":\"en-US\"}";
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/chat"))
+                .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(BODY)).build();
+
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLong totalLatency = new AtomicLong();
+        CompletableFuture<?>[] all = new CompletableFuture<?>[requests];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            all[i] = http.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((res, e) -> {
+                totalLatency.addAndGet(System.nanoTime() - sent);
+                if (e != null || res.statusCode() != 200 || !res.body().contains("\"reply\""))
+                    errors.incrementAndGet();
+                inFlight.release();
+            });
+        }
+        CompletableFuture.allOf(all).exceptionally(e -> null).join();
+        long wall = System.nanoTime() - start;
+
+        double seconds = wall / 1e9;
+        double avgMs = totalLatency.get() / 1e6 / requests;
+        System.out.printf("requests=%d  concurrency=%d  errors=%d%n", requests, concurrency, errors.get());
+        System.out.printf("wall=%.1fs  throughput=%.0f req/s  avg latency=%.0f ms%n", seconds, requests / seconds,
+                avgMs);
+        // Little's law: average number of turns the server really had in progress at once
+        System.out.printf("effective server concurrency=%.0f%n", totalLatency.get() / (double) wall);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.aiagent.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bytes on the wire and load time for the page and a /chat reply. Each HTTP/1.1 request goes over a fresh
+ * connection that is read to the end, so the byte counts include the headers. The HTTP/2 line loads the
+ * page many times at once over a single h2c connection. For the /chat line, point the app at
+ * {@link StubUpstreamServer} and set ADMISSION_CLIENT_RATE=0. Run it against the old and the new server to
+ * compare them.
+ *
+ * Usage: FrontendProbe [baseUrl] [rounds]
+ */
+public class FrontendProbe {
+
+    private static final Pattern ETAG = Pattern.compile("(?im)^ETag:\\s*(.+?)\\s*$");
+    private static final Pattern STATUS = Pattern.compile("^HTTP/1\\.1 (\\d+)");
+    private static final String BROWSER_ENCODINGS = "gzip, deflate, br";
+    private static final String CHAT = "{\"message\":\"tell me a joke about computers\",\"lang\":\"en-US\"}";
+
+    private record Exchange(int status, int bytes, long nanos, String etag) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        URI base = URI.create(args.length > 0 ? args[0] : "http://localhost:8080");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String etag = get(base, "/", BROWSER_ENCODINGS, null).etag;
+        measure("GET /  first visit, no Accept-Encoding", rounds, () -> get(base, "/", null, null));
+        measure("GET /  first visit, browser encodings ", rounds, () -> get(base, "/", BROWSER_ENCODINGS, null));
+        measure("GET /  repeat visit, If-None-Match    ", rounds, () -> get(base, "/", BROWSER_ENCODINGS, etag));
+        measure("POST /chat, no Accept-Encoding        ", rounds, () -> post(base, "/chat", null));
+        measure("POST /chat, browser encodings         ", rounds, () -> post(base, "/chat", BROWSER_ENCODINGS));
+        multiplexed(base, rounds);
+    }
+
+    private interface Call {
+        Exchange run() throws Exception;
+    }
+
+    private static void measure(String label, int rounds, Call call) throws Exception {
+        long[] nanos = new long[rounds];
+        Exchange last = null;
+        for (int i = 0; i < rounds; i++) {
+            last = call.run();
+            nanos[i] = last.nanos;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%s  status=%d  wire=%6d B  p50=%6.2f ms  max=%6.2f ms%n", label, last.status,
+                last.bytes, nanos[rounds / 2] / 1e6, nanos[rounds - 1] / 1e6);
+    }
+
+    private static Exchange get(URI base, String path, String acceptEncoding, String ifNoneMatch) throws Exception {
+        StringBuilder head = new StringBuilder("GET " + path + " HTTP/1.1\r\n");
+        if (acceptEncoding != null)
+            head.append("Accept-Encoding: ").append(acceptEncoding).append("\r\n");
+        if (ifNoneMatch != null)
+            head.append("If-None-Match: ").append(ifNoneMatch).append("\r\n");
+        return exchange(base, head, new byte[0]);
+    }
+
+    private static Exchange post(URI base, String path, String acceptEncoding) throws Exception {
+        byte[] body = CHAT.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder("POST " + path + " HTTP/1.1\r\n")
+                .append("Content-Type: application/json\r\nContent-Length: ").append(body.length).append("\r\n");
+        if (acceptEncoding != null)
+            head.append("Accept-Encoding: ").append(acceptEncoding).append("\r\n");
+        return exchange(base, head, body);
+    }
+
+    private static Exchange exchange(URI base, StringBuilder head, byte[] body) throws Exception {
+        head.append("Host: ").append(base.getHost()).append("\r\nConnection: close\r\n\r\n");
+        long start = System.nanoTime();
+        try (Socket socket = new Socket(base.getHost(), base.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            in.transferTo(response);
+            long nanos = System.nanoTime() - start;
+
+            String text = response.toString(StandardCharsets.ISO_8859_1);
+            String headers = text.substring(0, Math.max(0, text.indexOf("\r\n\r\n")));
+            Matcher status = STATUS.matcher(headers);
+            Matcher etag = ETAG.matcher(headers);
+            return new Exchange(status.find() ? Integer.parseInt(status.group(1)) : 0, response.size(), nanos,
+                    etag.find() ? etag.group(1) : null);
+        }
+    }
+
+    /** The page loaded rounds times at once, over one connection when the server speaks h2c. */
+    private static void multiplexed(URI base, int rounds) throws Exception {
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        HttpRequest request = HttpRequest.newBuilder(base.resolve("/")).header("Accept-Encoding", "gzip").build();
+        // The first request carries the Upgrade: h2c; the rest reuse whatever it settled on
+        HttpClient.Version version = http.send(request, HttpResponse.BodyHandlers.ofByteArray()).version();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<HttpResponse<byte[]>>> pages = new ArrayList<>();
+        for (int i = 0; i < rounds; i++)
+            pages.add(http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()));
+        CompletableFuture.allOf(pages.toArray(CompletableFuture[]::new)).join();
+        System.out.printf("GET /  x%d concurrent over %-8s          total=%6.2f ms%n", rounds, version,
+                (System.nanoTime() - start) / 1e6);
+    }
+}
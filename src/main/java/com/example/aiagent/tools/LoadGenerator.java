@@ -0,0 +1,125 @@
+package com.example.aiagent.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Capacity-planning load test: drives /chat with a weighted mix of intents at a fixed number of requests
+ * in flight, then reports throughput and p50/p95/p99 latency overall and per intent. Run the app with
+ * UPSTREAM_BASE_URL pointing at {@link StubUpstreamServer} so no real quota is spent, and with
+ * ADMISSION_CLIENT_RATE=0: every request comes from one address and would otherwise be rate limited.
+ *
+ * The message sequence comes from a fixed seed, so two runs send the same requests in the same order.
+ * Every request starts a fresh session; cache hit rates come from the repeated cities and queries.
+ *
+ * Usage: LoadGenerator [baseUrl] [concurrency] [requests]
+ */
+public class LoadGenerator {
+
+    private static final Map<String, Object> MUMBAI = Map.of("latitude", 19.076, "longitude", 72.8777);
+
+    /** One slice of the traffic: the share it gets and the messages it picks from. */
+    private record Mix(String intent, int weight, boolean withLocation, String... messages) {
+    }
+
+    private static final List<Mix> MIX = List.of(
+            new Mix("chat", 50, false, "tell me a joke about computers", "how do rainbows form",
+                    "give me a quick pasta recipe", "kya haal hai", "summarise the plot of hamlet"),
+            new Mix("weather", 15, false, "weather in mumbai", "weather in delhi", "mausam in pune",
+                    "temperature in bangalore", "weather in london", "weather in chennai"),
+            new Mix("location", 5, true, "where am i", "what is my location"),
+            new Mix("news", 10, false, "latest news", "news today"),
+            new Mix("youtube", 8, false, "play kesariya song", "watch cricket highlights video"),
+            new Mix("question", 7, false, "who is the prime minister of india", "what is the capital of peru"),
+            new Mix("search", 5, false, "search for cheap flights to goa"));
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        ObjectMapper mapper = new ObjectMapper();
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI uri = URI.create(base + "/chat");
+
+        int totalWeight = MIX.stream().mapToInt(Mix::weight).sum();
+        Random random = new Random(42);
+        int[] intentOf = new int[requests];
+        long[] latency = new long[requests];
+        AtomicIntegerArray errors = new AtomicIntegerArray(MIX.size());
+        Semaphore inFlight = new Semaphore(concurrency);
+        CompletableFuture<?>[] all = new CompletableFuture<?>[requests];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int slice = pick(random.nextInt(totalWeight));
+            Mix mix = MIX.get(slice);
+            Map<String, Object> body = mix.withLocation()
+                    ? Map.of("message", mix.messages()[random.nextInt(mix.messages().length)], "location", MUMBAI)
+                    : Map.of("message", mix.messages()[random.nextInt(mix.messages().length)]);
+            HttpRequest request = HttpRequest.newBuilder(uri).header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body))).build();
+
+            inFlight.acquire();
+            int n = i;
+            intentOf[n] = slice;
+            long sent = System.nanoTime();
+            all[i] = http.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((res, e) -> {
+                latency[n] = System.nanoTime() - sent;
+                if (e != null || res.statusCode() != 200 || !res.body().contains("\"reply\""))
+                    errors.incrementAndGet(slice);
+                inFlight.release();
+            });
+        }
+        CompletableFuture.allOf(all).exceptionally(e -> null).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("requests=%d  concurrency=%d  wall=%.1fs  throughput=%.0f req/s%n", requests,
+                concurrency, seconds, requests / seconds);
+        System.out.printf("%-10s %7s %7s %9s %9s %9s%n", "intent", "count", "errors", "p50 ms", "p95 ms", "p99 ms");
+        int totalErrors = 0;
+        for (int s = 0; s < MIX.size(); s++) {
+            int slice = s;
+            long[] sample = IntStream.range(0, requests).filter(i -> intentOf[i] == slice)
+                    .mapToLong(i -> latency[i]).toArray();
+            totalErrors += errors.get(s);
+            report(MIX.get(s).intent(), sample, errors.get(s));
+        }
+        report("all", latency.clone(), totalErrors);
+    }
+
+    private static int pick(int roll) {
+        for (int s = 0; s < MIX.size(); s++) {
+            roll -= MIX.get(s).weight();
+            if (roll < 0)
+                return s;
+        }
+        return MIX.size() - 1;
+    }
+
+    private static void report(String name, long[] sample, int errors) {
+        if (sample.length == 0)
+            return;
+        Arrays.sort(sample);
+        System.out.printf("%-10s %7d %7d %9.1f %9.1f %9.1f%n", name, sample.length, errors,
+                percentile(sample, 0.50), percentile(sample, 0.95), percentile(sample, 0.99));
+    }
+
+    /** Nearest-rank percentile of a sorted sample, in milliseconds. */
+    private static double percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(rank, 0)] / 1e6;
+    }
+}
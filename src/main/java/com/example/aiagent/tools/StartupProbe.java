@@ -0,0 +1,138 @@
+package com.example.aiagent.tools;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the server, as an autoscaler sees it. Each round launches the server as a child JVM against a
+ * {@link StubUpstreamServer} in this one, then reports:
+ * <ul>
+ * <li>how long until the server accepts connections;</li>
+ * <li>how long until the first /chat turn comes back with a reply;</li>
+ * <li>its resident memory after idling a few seconds (from /proc, so Linux only).</li>
+ * </ul>
+ * JVM options after the round count go to the child, to compare launches. For example, run it once plain and
+ * once with -XX:SharedArchiveFile=target/app-cds.jsa after mvn -Pappcds package.
+ *
+ * Usage: StartupProbe [rounds] [jvm options...]
+ */
+public class StartupProbe {
+
+    private static final int PORT = 18080;
+    private static final int STUB_PORT = 18090;
+    private static final long IDLE_MS = 3000;
+    private static final String BODY = "{\"message\":\"tell me a joke about computers\",\"lang\":\"en-US\"}";
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<String> jvmOptions = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : List.of();
+        StubUpstreamServer.start(String.valueOf(STUB_PORT), "0", "0", "0");
+        Path events = Files.createTempDirectory("probe-events");
+
+        // Same classpath string as the training run used, or the JVM refuses the CDS archive
+        String jar = Paths.get(StartupProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString();
+        List<String> command = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString()));
+        command.addAll(jvmOptions);
+        command.addAll(List.of("-cp", jar, "com.example.aiagent.Main"));
+
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HttpRequest chat = HttpRequest.newBuilder(URI.create("http://localhost:" + PORT + "/chat"))
+                .header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(BODY)).build();
+        // Warm this side up first, so only the child's startup is measured
+        http.send(HttpRequest.newBuilder(URI.create("http://localhost:" + STUB_PORT + "/reverse")).build(),
+                HttpResponse.BodyHandlers.discarding());
+
+        System.out.println("Launching: " + String.join(" ", command));
+        long[] listening = new long[rounds];
+        long[] firstChat = new long[rounds];
+        long[] rssKb = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.environment().put("PORT", String.valueOf(PORT));
+            pb.environment().put("UPSTREAM_BASE_URL", "http://localhost:" + STUB_PORT);
+            pb.environment().put("ADMISSION_CLIENT_RATE", "0");
+            pb.environment().put("EVENT_LOG_DIR", events.toString());
+
+            long start = System.nanoTime();
+            Process server = pb.start();
+            try {
+                while (!accepts(PORT))
+                    poll(server);
+                listening[i] = System.nanoTime() - start;
+                while (!chatSucceeds(http, chat))
+                    poll(server);
+                firstChat[i] = System.nanoTime() - start;
+
+                Thread.sleep(IDLE_MS);
+                rssKb[i] = rssKb(server.pid());
+                System.out.printf("round %d: listening %5d ms, first /chat %5d ms, idle RSS %6d KB%n", i + 1,
+                        listening[i] / 1_000_000, firstChat[i] / 1_000_000, rssKb[i]);
+            } finally {
+                server.destroy();
+                server.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+
+        System.out.printf("p50:     listening %5d ms, first /chat %5d ms, idle RSS %6d KB%n",
+                median(listening) / 1_000_000, median(firstChat) / 1_000_000, median(rssKb));
+        System.exit(0);
+    }
+
+    private static boolean accepts(int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port), 100);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean chatSucceeds(HttpClient http, HttpRequest chat) {
+        try {
+            HttpResponse<String> res = http.send(chat, HttpResponse.BodyHandlers.ofString());
+            return res.statusCode() == 200 && res.body().contains("\"reply\"");
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void poll(Process server) throws InterruptedException {
+        if (!server.isAlive())
+            throw new IllegalStateException("Server exited with " + server.exitValue());
+        Thread.sleep(5);
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Paths.get("/proc", String.valueOf(pid), "status");
+        if (!Files.exists(status))
+            return -1;
+        for (String line : Files.readAllLines(status))
+            if (line.startsWith("VmRSS:"))
+                return Long.parseLong(line.replaceAll("\\D", ""));
+        return -1;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
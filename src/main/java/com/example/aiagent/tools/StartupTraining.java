@@ -0,0 +1,93 @@
+package com.example.aiagent.tools;
+
+import com.example.aiagent.Main;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+
+/**
+ * The training run behind the AppCDS archive (mvn -Pappcds package). Starts a {@link StubUpstreamServer} and
+ * the server in this JVM, sends the kinds of requests a fresh instance serves first, and exits, at which
+ * point -XX:ArchiveClassesAtExit writes every class loaded so far into the archive. Upstreams, port,
+ * conversation log and event log are pointed at throwaway ones, whatever .env says.
+ *
+ * Usage: StartupTraining [port] [stubPort]
+ */
+public class StartupTraining {
+
+    private static final String[] MESSAGES = {
+            "tell me a joke about computers",
+            "weather in Pune",
+            "navigate to India Gate",
+            "latest news",
+            "who won the cricket world cup",
+            "where am i",
+    };
+
+    public static void main(String[] args) throws Exception {
+        String port = args.length > 0 ? args[0] : "18080";
+        String stubPort = args.length > 1 ? args[1] : "18090";
+        String stub = "http://localhost:" + stubPort;
+        // System properties override both the environment and .env (see Env)
+        System.setProperty("PORT", port);
+        for (String key : new String[] { "UPSTREAM_BASE_URL", "GROQ_BASE_URL", "WEATHER_BASE_URL",
+                "GEOCODE_BASE_URL", "GNEWS_BASE_URL", "GOOGLE_BASE_URL" })
+            System.setProperty(key, stub);
+        System.setProperty("ADMISSION_CLIENT_RATE", "0");
+        System.setProperty("CONVERSATION_LOG_DIR", Files.createTempDirectory("training-log").toString());
+        System.setProperty("CONVERSATION_LOG_SEGMENT_MB", "1");
+        System.setProperty("EVENT_LOG_DIR", Files.createTempDirectory("training-events").toString());
+
+        StubUpstreamServer.start(stubPort, "0", "0", "0");
+        Thread.ofPlatform().daemon().name("server").start(() -> {
+            try {
+                Main.main(new String[0]);
+            } catch (Exception e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        });
+
+        String base = "http://localhost:" + port;
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        waitForServer(http, base);
+        for (int round = 0; round < 3; round++) {
+            get(http, base + "/");
+            get(http, base + "/metrics");
+            get(http, base + "/cache/stats");
+            for (String message : MESSAGES) {
+                String body = "{\"message\":\"" + message + "\",\"lang\":\"en-US\","
+                        + "\"location\":{\"latitude\":19.07,\"longitude\":72.87}}";
+                post(http, base + "/chat", body);
+                post(http, base + "/chat/stream", body);
+            }
+        }
+        System.out.println("Training run done; the JVM writes the archive on exit.");
+        System.exit(0);
+    }
+
+    private static void waitForServer(HttpClient http, String base) throws InterruptedException {
+        for (int i = 0; i < 600; i++) {
+            try {
+                get(http, base + "/");
+                return;
+            } catch (Exception e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Server did not start on " + base);
+    }
+
+    private static void get(HttpClient http, String url) throws Exception {
+        http.send(HttpRequest.newBuilder(URI.create(url)).header("Accept-Encoding", "gzip").build(),
+                HttpResponse.BodyHandlers.discarding());
+    }
+
+    private static void post(HttpClient http, String url, String body) throws Exception {
+        http.send(HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.discarding());
+    }
+}
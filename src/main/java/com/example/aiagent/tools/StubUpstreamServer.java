@@ -0,0 +1,201 @@
+package com.example.aiagent.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.ee10.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee10.servlet.ServletHolder;
+import org.eclipse.jetty.server.Server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for every upstream API (Groq, OpenWeatherMap, Nominatim, GNews, YouTube and Custom
+ * Search), so the server can be load-tested without real keys or quota.
+ *
+ * Run it, then start the app with UPSTREAM_BASE_URL=http://localhost:9090. Groq latency is shaped like a
+ * real LLM: a fixed wait for the first token, then a fixed delay per token, streamed when the request asks
+ * for it. The lookup APIs answer a canned body after a fixed delay. A fraction of all calls, set by
+ * errorRate, fail with 503 instead, and a fraction set by slowRate take slowMs longer, to give timeouts,
+ * circuit breakers and hedged requests something to do. Delays are scheduled rather than slept, so the
+ * stub itself never becomes the concurrency bottleneck of a load test.
+ *
+ * Usage: StubUpstreamServer [port] [firstTokenMs] [perTokenMs] [lookupMs] [errorRate] [slowRate] [slowMs]
+ */
+public class StubUpstreamServer {
+
+    static final String CANNED_REPLY = "Sure, here is what I found. The weather looks clear for most of the day. "
+            + "You might want to carry a light jacket in the evening. Let me know if you need anything else!";
+
+    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4);
+    private static double slowRate;
+    private static long slowMs;
+
+    public static void main(String[] args) throws Exception {
+        start(args).join();
+    }
+
+    /** Starts the stub with the same arguments as {@link #main} and returns once it is listening. */
+    public static Server start(String... args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9090;
+        long firstTokenMs = args.length > 1 ? Long.parseLong(args[1]) : 300;
+        long perTokenMs = args.length > 2 ? Long.parseLong(args[2]) : 40;
+        long lookupMs = args.length > 3 ? Long.parseLong(args[3]) : 80;
+        double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.0;
+        slowRate = args.length > 5 ? Double.parseDouble(args[5]) : 0.0;
+        slowMs = args.length > 6 ? Long.parseLong(args[6]) : 0;
+
+        Server server = new Server(port);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        add(context, new GroqStub(firstTokenMs, perTokenMs, errorRate), "/openai/v1/chat/completions");
+        add(context, new LookupStub(lookupMs, errorRate, Map.of("name", "Mumbai",
+                "main", Map.of("temp", 31.99), "weather", List.of(Map.of("description", "haze")))),
+                "/data/2.5/weather");
+        add(context, new LookupStub(lookupMs, errorRate, Map.of("address", Map.of("city", "Mumbai"))),
+                "/reverse");
+        add(context, new LookupStub(lookupMs, errorRate, Map.of("articles", List.of(
+                Map.of("title", "Monsoon arrives early over Kerala"),
+                Map.of("title", "Sensex closes at record high"),
+                Map.of("title", "ISRO schedules next launch window")))), "/api/v4/top-headlines");
+        add(context, new LookupStub(lookupMs, errorRate,
+                Map.of("items", List.of(Map.of("id", Map.of("videoId", "dQw4w9WgXcQ"))))), "/youtube/v3/search");
+        add(context, new LookupStub(lookupMs, errorRate, Map.of("items", List.of(Map.of("snippet",
+                "A stub search result snippet, long enough to be read aloud as a one-line answer.")))),
+                "/customsearch/v1");
+        server.setHandler(context);
+
+        System.out.printf("Stub upstream running on http://localhost:%d (first token %d ms, %d ms/token, "
+                + "lookups %d ms, error rate %.2f, %.2f of calls %d ms slower)%n", port, firstTokenMs, perTokenMs,
+                lookupMs, errorRate, slowRate, slowMs);
+        server.start();
+        return server;
+    }
+
+    private static void add(ServletContextHandler context, HttpServlet stub, String path) {
+        ServletHolder holder = new ServletHolder(stub);
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, path);
+    }
+
+    private static boolean fail(double errorRate) {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    /** The base delay, plus slowMs for the unlucky fraction of calls. */
+    private static long delay(long baseMs) {
+        return (slowRate > 0 && ThreadLocalRandom.current().nextDouble() < slowRate) ? baseMs + slowMs : baseMs;
+    }
+
+    private static void writeError(AsyncContext async) {
+        ((HttpServletResponse) async.getResponse()).setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        async.complete();
+    }
+
+    /** A GET API that answers the same JSON body to every query. */
+    static class LookupStub extends HttpServlet {
+        private final long latencyMs;
+        private final double errorRate;
+        private final byte[] body;
+
+        LookupStub(long latencyMs, double errorRate, Object body) throws IOException {
+            this.latencyMs = latencyMs;
+            this.errorRate = errorRate;
+            this.body = new ObjectMapper().writeValueAsBytes(body);
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+            AsyncContext async = req.startAsync();
+            async.setTimeout(0);
+            timer.schedule(fail(errorRate) ? () -> writeError(async) : () -> writeBody(async), delay(latencyMs),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        private void writeBody(AsyncContext async) {
+            try {
+                async.getResponse().setContentType("application/json");
+                async.getResponse().getOutputStream().write(body);
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                async.complete();
+            }
+        }
+    }
+
+    static class GroqStub extends HttpServlet {
+        private static final String[] TOKENS = CANNED_REPLY.split("(?<= )");
+
+        private final ObjectMapper mapper = new ObjectMapper();
+        private final long firstTokenMs;
+        private final long perTokenMs;
+        private final double errorRate;
+
+        GroqStub(long firstTokenMs, long perTokenMs, double errorRate) {
+            this.firstTokenMs = firstTokenMs;
+            this.perTokenMs = perTokenMs;
+            this.errorRate = errorRate;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            JsonNode body = mapper.readTree(req.getInputStream());
+            AsyncContext async = req.startAsync();
+            async.setTimeout(0);
+
+            if (fail(errorRate)) {
+                timer.schedule(() -> writeError(async), delay(firstTokenMs), TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (!body.path("stream").asBoolean(false)) {
+                timer.schedule(() -> writeCompletion(async), delay(firstTokenMs) + perTokenMs * TOKENS.length,
+                        TimeUnit.MILLISECONDS);
+                return;
+            }
+            resp.setContentType("text/event-stream");
+            timer.schedule(() -> writeToken(async, 0), delay(firstTokenMs), TimeUnit.MILLISECONDS);
+        }
+
+        private void writeCompletion(AsyncContext async) {
+            try {
+                async.getResponse().setContentType("application/json");
+                mapper.writeValue(async.getResponse().getOutputStream(), Map.of("choices",
+                        List.of(Map.of("message", Map.of("role", "assistant", "content", CANNED_REPLY)))));
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                async.complete();
+            }
+        }
+
+        private void writeToken(AsyncContext async, int i) {
+            try {
+                PrintWriter out = async.getResponse().getWriter();
+                if (i < TOKENS.length) {
+                    Map<String, Object> chunk = Map.of("choices",
+                            List.of(Map.of("delta", Map.of("content", TOKENS[i]))));
+                    out.write("data: " + mapper.writeValueAsString(chunk) + "\n\n");
+                    out.flush();
+                    timer.schedule(() -> writeToken(async, i + 1), perTokenMs, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                out.write("data: [DONE]\n\n");
+                out.flush();
+            } catch (IOException e) {
+                // client went away
+            }
+            async.complete();
+        }
+    }
+}
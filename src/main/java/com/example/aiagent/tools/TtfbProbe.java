@@ -0,0 +1,66 @@
+package com.example.aiagent.tools;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares how long the user waits before there is something to speak: the blocking /chat reply
+ * versus the first sentence event of /chat/stream. Point the app at {@link StubUpstreamServer} first.
+ *
+ * Usage: TtfbProbe [baseUrl] [rounds]
+ */
+public class TtfbProbe {
+
+    private static final String BODY = "{\"message\":\"tell me a joke about computers\",\"lang\":\"en-US\"}";
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8080";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        HttpClient http = HttpClient.newHttpClient();
+
+        long[] blocking = new long[rounds];
+        long[] streaming = new long[rounds];
+        long[] streamingTotal = new long[rounds];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            http.send(post(base + "/chat"), HttpResponse.BodyHandlers.ofString());
+            blocking[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            HttpResponse<InputStream> res = http.send(post(base + "/chat/stream"),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(res.body(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (streaming[i] == 0 && (line.equals("event: sentence") || line.equals("event: done")))
+                        streaming[i] = System.nanoTime() - start;
+                }
+            }
+            streamingTotal[i] = System.nanoTime() - start;
+        }
+
+        report("/chat         (full reply)    ", blocking);
+        report("/chat/stream  (first sentence)", streaming);
+        report("/chat/stream  (full reply)    ", streamingTotal);
+    }
+
+    private static HttpRequest post(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(BODY)).build();
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s  p50=%5d ms  max=%5d ms%n", label, sorted[sorted.length / 2] / 1_000_000,
+                sorted[sorted.length - 1] / 1_000_000);
+    }
+}